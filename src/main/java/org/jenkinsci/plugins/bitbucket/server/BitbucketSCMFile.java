@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.bitbucket.server;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.scm.api.SCMFile;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryEntry;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryListing;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+
+import javax.ws.rs.NotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path at the commit of a {@link BitbucketSCMFileSystem}. Its type is looked up when it is first asked for, unless
+ * the path was found in the listing of its directory.
+ *
+ * @author Robin Müller
+ */
+class BitbucketSCMFile extends SCMFile {
+
+    private final BitbucketSCMFileSystem fileSystem;
+    private Type type;
+
+    BitbucketSCMFile(BitbucketSCMFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.type = Type.DIRECTORY;
+    }
+
+    private BitbucketSCMFile(BitbucketSCMFileSystem fileSystem, BitbucketSCMFile parent, String name, Type type) {
+        super(parent, name);
+        this.fileSystem = fileSystem;
+        this.type = type;
+    }
+
+    @NonNull
+    @Override
+    protected SCMFile newChild(@NonNull String name, boolean assumeIsDirectory) {
+        return new BitbucketSCMFile(fileSystem, this, name, assumeIsDirectory ? Type.DIRECTORY : null);
+    }
+
+    @NonNull
+    @Override
+    public Iterable<SCMFile> children() throws IOException {
+        if (type() != Type.DIRECTORY) {
+            return Collections.emptyList();
+        }
+        List<SCMFile> children = new ArrayList<>();
+        Integer start = null;
+        try {
+            Page<DirectoryEntry> page;
+            do {
+                DirectoryListing listing = fileSystem.getClient().browseDirectory(fileSystem.getProject(), fileSystem.getRepository(),
+                                                                                  isRoot() ? "" : getPath(), fileSystem.getHash(),
+                                                                                  start, fileSystem.getPageSize());
+                page = listing.getChildren();
+                if (page == null) {
+                    break;
+                }
+                for (DirectoryEntry entry : page.getValues()) {
+                    children.add(new BitbucketSCMFile(fileSystem, this, entry.getName(), toType(entry)));
+                }
+                start = page.getStart() != null && page.getLimit() != null ? page.getStart() + page.getLimit() : null;
+            } while (!Boolean.TRUE.equals(page.getIsLastPage()) && start != null);
+        } catch (NotFoundException e) {
+            return Collections.emptyList();
+        }
+        return children;
+    }
+
+    /**
+     * The files of a commit are not looked up one by one, they were all modified with the commit.
+     */
+    @Override
+    public long lastModified() throws IOException {
+        return fileSystem.lastModified();
+    }
+
+    @NonNull
+    @Override
+    protected Type type() throws IOException {
+        if (type == null) {
+            type = fileSystem.type(getPath());
+        }
+        return type;
+    }
+
+    @NonNull
+    @Override
+    public InputStream content() throws IOException {
+        if (type() == Type.DIRECTORY) {
+            throw new IOException(getPath() + " is a directory");
+        }
+        return fileSystem.content(getPath());
+    }
+
+    private static Type toType(DirectoryEntry entry) {
+        if (entry.getType() == null) {
+            return Type.OTHER;
+        }
+        switch (entry.getType()) {
+            case FILE:
+                return Type.REGULAR_FILE;
+            case DIRECTORY:
+                return Type.DIRECTORY;
+            default:
+                return Type.OTHER;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.jenkinsci.plugins.bitbucket.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.scm.SCM;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMFileSystem;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientService;
+
+import javax.ws.rs.NotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Reads the files of a commit through the REST API of Bitbucket Server, so loading a Jenkinsfile does not need a
+ * checkout of the repository.
+ * <p>
+ * The content of a path at a commit never changes. Recently read files up to a size of
+ * {@value #MAX_CACHED_FILE_SIZE} bytes are kept in memory by credentials, commit and path, larger files are streamed.
+ *
+ * @author Robin Müller
+ */
+class BitbucketSCMFileSystem extends SCMFileSystem {
+
+    static final int MAX_CACHED_FILE_SIZE = 256 * 1024;
+
+    private static final Cache<ContentKey, byte[]> CONTENT = CacheBuilder.newBuilder()
+            .maximumWeight(Long.getLong(BitbucketSCMFileSystem.class.getName() + ".contentCacheSize", 16 * 1024 * 1024))
+            .weigher(new Weigher<ContentKey, byte[]>() {
+                @Override
+                public int weigh(ContentKey key, byte[] content) {
+                    return content.length;
+                }
+            })
+            .build();
+
+    private final AbstractGitSCMSource.SCMRevisionImpl revision;
+    private final BitbucketClientConfiguration clientConfiguration;
+    private final SCMSourceOwner context;
+    private final String project;
+    private final String repository;
+    private final BitbucketSCMProbe probe;
+
+    BitbucketSCMFileSystem(SCMHead head,
+                           AbstractGitSCMSource.SCMRevisionImpl revision,
+                           BitbucketClientConfiguration clientConfiguration,
+                           SCMSourceOwner context,
+                           String project,
+                           String repository) {
+        super(revision);
+        this.revision = revision;
+        this.clientConfiguration = clientConfiguration;
+        this.context = context;
+        this.project = project;
+        this.repository = repository;
+        // the probe shares the cached types of the paths at the commit
+        this.probe = new BitbucketSCMProbe(head, revision, clientConfiguration, context, project, repository);
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return probe.lastModified();
+    }
+
+    @NonNull
+    @Override
+    public SCMFile getRoot() {
+        return new BitbucketSCMFile(this);
+    }
+
+    SCMFile.Type type(String path) throws IOException {
+        return probe.stat(path).getType();
+    }
+
+    BitbucketServerAPI getClient() {
+        return BitbucketServerClientService.instance().getClient(clientConfiguration, context);
+    }
+
+    String getProject() {
+        return project;
+    }
+
+    String getRepository() {
+        return repository;
+    }
+
+    String getHash() {
+        return revision.getHash();
+    }
+
+    int getPageSize() {
+        return clientConfiguration.getMaxPageSize();
+    }
+
+    InputStream content(String path) throws IOException {
+        ContentKey key = new ContentKey(clientConfiguration.getBaseUrl(), clientConfiguration.getCredentialsId(), project, repository, revision.getHash(), path);
+        byte[] content = CONTENT.getIfPresent(key);
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        InputStream stream;
+        try {
+            stream = getClient().getRawContent(project, repository, path, revision.getHash());
+        } catch (NotFoundException e) {
+            throw new FileNotFoundException(path + " does not exist at " + revision.getHash());
+        }
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        try {
+            if (IOUtils.copyLarge(stream, head, 0, MAX_CACHED_FILE_SIZE + 1) > MAX_CACHED_FILE_SIZE) {
+                // too large to be cached, the rest is read as it is consumed
+                return new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), stream);
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        stream.close();
+        content = head.toByteArray();
+        CONTENT.put(key, content);
+        return new ByteArrayInputStream(content);
+    }
+
+    static void invalidateContent() {
+        CONTENT.invalidateAll();
+    }
+
+    @Extension
+    public static class BuilderImpl extends SCMFileSystem.Builder {
+
+        /**
+         * A {@code GitSCM} does not tell the Bitbucket Server repository it was built for.
+         */
+        @Override
+        public boolean supports(SCM source) {
+            return false;
+        }
+
+        @Override
+        public boolean supports(SCMSource source) {
+            return source instanceof BitbucketSCMSource;
+        }
+
+        @Override
+        public SCMFileSystem build(@NonNull Item owner, @NonNull SCM scm, SCMRevision rev) {
+            return null;
+        }
+
+        /**
+         * Only a revision pins the commit whose files are read, without one the caller falls back to a checkout.
+         */
+        @Override
+        public SCMFileSystem build(@NonNull SCMSource source, @NonNull SCMHead head, SCMRevision rev) {
+            if (!(source instanceof BitbucketSCMSource) || !(rev instanceof AbstractGitSCMSource.SCMRevisionImpl)) {
+                return null;
+            }
+            return ((BitbucketSCMSource) source).newFileSystem(head, (AbstractGitSCMSource.SCMRevisionImpl) rev);
+        }
+    }
+
+    private static class ContentKey {
+        private final String baseUrl;
+        private final String credentialsId;
+        private final String project;
+        private final String repository;
+        private final String commitHash;
+        private final String path;
+
+        private ContentKey(String baseUrl, String credentialsId, String project, String repository, String commitHash, String path) {
+            this.baseUrl = baseUrl;
+            this.credentialsId = credentialsId;
+            this.project = project;
+            this.repository = repository;
+            this.commitHash = commitHash;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ContentKey key = (ContentKey) o;
+            return new EqualsBuilder()
+                    .append(baseUrl, key.baseUrl)
+                    .append(credentialsId, key.credentialsId)
+                    .append(project, key.project)
+                    .append(repository, key.repository)
+                    .append(commitHash, key.commitHash)
+                    .append(path, key.path)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(17, 37)
+                    .append(baseUrl)
+                    .append(credentialsId)
+                    .append(project)
+                    .append(repository)
+                    .append(commitHash)
+                    .append(path)
+                    .toHashCode();
+        }
+    }
+}
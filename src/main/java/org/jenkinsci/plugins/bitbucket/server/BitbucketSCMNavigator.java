@@ -1,6 +1,7 @@
 package org.jenkinsci.plugins.bitbucket.server;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.TaskListener;
@@ -16,13 +17,19 @@ import org.jenkinsci.plugins.bitbucket.server.api.model.Repository;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketPagingClient;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientService;
+import org.jenkinsci.plugins.bitbucket.server.client.DeadlineExceededException;
+import org.jenkinsci.plugins.bitbucket.server.client.PageIterable;
+import org.jenkinsci.plugins.bitbucket.server.client.RequestDeadline;
+import org.jenkinsci.plugins.bitbucket.server.client.RequestPriority;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
+import javax.ws.rs.ProcessingException;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -121,23 +128,35 @@ public class BitbucketSCMNavigator extends SCMNavigator {
         BitbucketPagingClient client = BitbucketServerClientService.instance().getPagingClient(clientConfiguration, observer.getContext());
 
         listener.getLogger().printf("Looking up repositories of project %s%n", project);
-        for (Repository repository : client.getRepositories(project)) {
-            String repositorySlug = repository.getSlug();
-            if (!repositorySlug.matches(pattern)) {
-                listener.getLogger().printf("Ignoring %s%n", repositorySlug);
-                continue;
+        try (RequestPriority.Scope priority = RequestPriority.enter(RequestPriority.BACKGROUND);
+             RequestDeadline deadline = RequestDeadline.start("scan of project " + project, clientConfiguration.getScanTimeout(), TimeUnit.SECONDS);
+             PageIterable<Repository> repositories = client.getRepositories(project)) {
+            for (Repository repository : repositories) {
+                String repositorySlug = repository.getSlug();
+                if (!repositorySlug.matches(pattern)) {
+                    listener.getLogger().printf("Ignoring %s%n", repositorySlug);
+                    continue;
+                }
+                listener.getLogger().printf("Proposing %s%n", repositorySlug);
+                checkInterrupt();
+                SCMSourceObserver.ProjectObserver projectObserver = observer.observe(repository.getName());
+                BitbucketSCMSource scmSource =
+                        new BitbucketSCMSource(getId() + "::" + repositorySlug, clientConfiguration, project, repositorySlug);
+                scmSource.setAutoRegisterHook(autoRegisterHooks);
+                scmSource.setCheckoutCredentialsId(checkoutCredentialsId);
+                scmSource.setIncludes(includes);
+                scmSource.setExcludes(excludes);
+                projectObserver.addSource(scmSource);
+                projectObserver.complete();
             }
-            listener.getLogger().printf("Proposing %s%n", repositorySlug);
-            checkInterrupt();
-            SCMSourceObserver.ProjectObserver projectObserver = observer.observe(repository.getName());
-            BitbucketSCMSource scmSource =
-                    new BitbucketSCMSource(getId() + "::" + repositorySlug, clientConfiguration, project, repositorySlug);
-            scmSource.setAutoRegisterHook(autoRegisterHooks);
-            scmSource.setCheckoutCredentialsId(checkoutCredentialsId);
-            scmSource.setIncludes(includes);
-            scmSource.setExcludes(excludes);
-            projectObserver.addSource(scmSource);
-            projectObserver.complete();
+        } catch (DeadlineExceededException e) {
+            throw new AbortException(e.getMessage());
+        } catch (ProcessingException e) {
+            // the client reports an interrupted wait for a request as processing failure
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw e;
         }
     }
 
@@ -10,11 +10,16 @@ import jenkins.scm.api.SCMRevision;
 import jenkins.scm.api.SCMSourceOwner;
 import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
 import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryEntry;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientService;
 
 import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.NotFoundException;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Robin Müller
@@ -49,27 +54,46 @@ class BitbucketSCMProbe extends SCMProbe {
 
     @Override
     public long lastModified() {
-        if (revision instanceof AbstractGitSCMSource.SCMRevisionImpl) {
-            return getClient().getCommit(project, repository, ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash()).getAuthorTimestamp();
+        String hash = getHash();
+        if (hash != null) {
+            // a branch listed with details already told the timestamp of its latest commit
+            Long authorTimestamp = ProbeStatCache.getAuthorTimestamp(clientConfiguration, project, repository, hash);
+            if (authorTimestamp == null) {
+                authorTimestamp = getClient().getCommit(project, repository, hash).getAuthorTimestamp();
+                if (authorTimestamp == null) {
+                    return 0;
+                }
+                ProbeStatCache.putAuthorTimestamp(clientConfiguration, project, repository, hash, authorTimestamp);
+            }
+            return authorTimestamp;
         } else {
             return 0;
         }
     }
 
+    /**
+     * With a revision the path is looked up at its commit, its type is cached for all probes of the commit then. If
+     * enabled for the server, the directory of the path is listed instead, so looking up its siblings needs no request.
+     */
     @NonNull
     @Override
     public SCMProbeStat stat(@NonNull String path) throws IOException {
+        String hash = getHash();
         try {
-            BrowsePath browsePath = getClient().browse(project, repository, path, head.getName(), true);
-            switch (browsePath.getType()) {
-                case FILE:
-                    return SCMProbeStat.fromType(SCMFile.Type.REGULAR_FILE);
-                case DIRECTORY:
-                    return SCMProbeStat.fromType(SCMFile.Type.DIRECTORY);
-                default:
-                    return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
+            if (hash == null) {
+                return SCMProbeStat.fromType(browse(path, head.getName()));
             }
+            SCMFile.Type type = ProbeStatCache.get(clientConfiguration, project, repository, hash, path);
+            if (type == null) {
+                type = clientConfiguration.isDirectoryListingProbes() ? list(path, hash) : null;
+                if (type == null) {
+                    type = browse(path, hash);
+                }
+                ProbeStatCache.put(clientConfiguration, project, repository, hash, path, type);
+            }
+            return SCMProbeStat.fromType(type);
         } catch (ClientErrorException e) {
+            // e.g. missing permissions, it is not known whether the path exists, so this is not cached
             return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
         }
     }
@@ -79,6 +103,78 @@ class BitbucketSCMProbe extends SCMProbe {
 
     }
 
+    private SCMFile.Type browse(String path, String at) {
+        try {
+            return toType(getClient().browse(project, repository, path, at, true).getType());
+        } catch (NotFoundException e) {
+            return SCMFile.Type.NONEXISTENT;
+        }
+    }
+
+    /**
+     * @return the type of the path according to the listing of its directory, {@code null} if the directory has too
+     * many children to be listed with one request or could not be listed
+     */
+    private SCMFile.Type list(String path, String hash) {
+        int slash = path.lastIndexOf('/');
+        String directory = slash < 0 ? "" : path.substring(0, slash);
+        String name = path.substring(slash + 1);
+        if (name.isEmpty()) {
+            return null;
+        }
+        Map<String, SCMFile.Type> listing = ProbeStatCache.getListing(clientConfiguration, project, repository, hash, directory);
+        if (listing == null) {
+            listing = listDirectory(directory, hash);
+            // a directory that cannot be listed is not listed again, its paths are browsed one by one
+            ProbeStatCache.putListing(clientConfiguration, project, repository, hash, directory,
+                                      listing != null ? listing : ProbeStatCache.NOT_LISTABLE);
+        }
+        if (listing == null || listing == ProbeStatCache.NOT_LISTABLE) {
+            return null;
+        }
+        SCMFile.Type type = listing.get(name);
+        return type != null ? type : SCMFile.Type.NONEXISTENT;
+    }
+
+    private Map<String, SCMFile.Type> listDirectory(String directory, String hash) {
+        Map<String, SCMFile.Type> listing = new HashMap<>();
+        try {
+            Page<DirectoryEntry> children = getClient().browseDirectory(project, repository, directory, hash, null, clientConfiguration.getMaxPageSize()).getChildren();
+            // a file has no children
+            if (children == null) {
+                return listing;
+            }
+            if (!Boolean.TRUE.equals(children.getIsLastPage())) {
+                return null;
+            }
+            for (DirectoryEntry child : children.getValues()) {
+                listing.put(child.getName(), toType(child.getType()));
+            }
+        } catch (NotFoundException e) {
+            // not necessarily a missing directory, the path is looked up on its own instead of caching an empty listing
+            return null;
+        }
+        return listing;
+    }
+
+    private static SCMFile.Type toType(BrowsePath.Type type) {
+        switch (type) {
+            case FILE:
+                return SCMFile.Type.REGULAR_FILE;
+            case DIRECTORY:
+                return SCMFile.Type.DIRECTORY;
+            default:
+                return SCMFile.Type.NONEXISTENT;
+        }
+    }
+
+    private String getHash() {
+        if (revision instanceof AbstractGitSCMSource.SCMRevisionImpl) {
+            return ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash();
+        }
+        return null;
+    }
+
     private BitbucketServerAPI getClient() {
         return BitbucketServerClientService.instance().getClient(clientConfiguration, context);
     }
@@ -4,6 +4,7 @@ import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
 import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
 import hudson.Extension;
 import hudson.model.Queue;
 import hudson.model.TaskListener;
@@ -31,24 +32,38 @@ import jenkins.scm.api.SCMSourceOwner;
 import jenkins.scm.impl.ChangeRequestSCMHeadCategory;
 import jenkins.scm.impl.UncategorizedSCMHeadCategory;
 import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.lib.Constants;
 import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Link;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketPagingClient;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientService;
+import org.jenkinsci.plugins.bitbucket.server.client.DeadlineExceededException;
+import org.jenkinsci.plugins.bitbucket.server.client.PageIterable;
+import org.jenkinsci.plugins.bitbucket.server.client.RequestDeadline;
+import org.jenkinsci.plugins.bitbucket.server.client.RequestPriority;
 import org.jenkinsci.plugins.bitbucket.server.filter.BranchFilter;
+import org.jenkinsci.plugins.bitbucket.server.webhook.api.BitbucketWebHookEvent;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.allOf;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.anyOf;
@@ -56,6 +71,7 @@ import static com.cloudbees.plugins.credentials.CredentialsMatchers.firstOrNull;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.instanceOf;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.withId;
 import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.BranchBuilder.aBranch;
 import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
 
 /**
@@ -141,41 +157,178 @@ public class BitbucketSCMSource extends SCMSource {
 
     @Override
     protected void retrieve(@CheckForNull SCMSourceCriteria criteria, @NonNull SCMHeadObserver observer, @CheckForNull SCMHeadEvent<?> event, @NonNull TaskListener listener) throws IOException, InterruptedException {
-        retrieveBranches(criteria, observer, listener);
+        // webhook triggered scans keep the interactive priority, someone just pushed and waits for the build
+        try (RequestPriority.Scope priority = RequestPriority.enter(event == null ? RequestPriority.BACKGROUND : RequestPriority.INTERACTIVE);
+             RequestDeadline deadline = RequestDeadline.start("scan of " + project + "/" + repository,
+                                                              clientConfiguration.getScanTimeout(), TimeUnit.SECONDS)) {
+            if (!retrieveFromEvent(criteria, observer, event, listener)) {
+                retrieveBranches(criteria, observer, listener);
+            }
+        } catch (DeadlineExceededException e) {
+            throw new AbortException(e.getMessage());
+        } catch (ProcessingException e) {
+            // the client reports an interrupted wait for a request as processing failure
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Observes the branch of a webhook event with the revision of its payload, without asking Bitbucket Server for the
+     * branches. A deleted branch is simply not observed.
+     *
+     * @return {@code false} if the event is not a complete webhook event for the branch of this repository the
+     * observer wants, the branches have to be retrieved then
+     */
+    private boolean retrieveFromEvent(SCMSourceCriteria criteria, SCMHeadObserver observer, SCMHeadEvent<?> event, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (event == null || !(event.getPayload() instanceof BitbucketWebHookEvent)) {
+            return false;
+        }
+        BitbucketWebHookEvent payload = (BitbucketWebHookEvent) event.getPayload();
+        if (!StringUtils.equalsIgnoreCase(payload.getProject(), project) || !StringUtils.equalsIgnoreCase(payload.getRepository(), repository)) {
+            return false;
+        }
+        SCMHead head = new BranchSCMHead(payload.getBranch());
+        if (!Collections.singleton(head).equals(observer.getIncludes())) {
+            return false;
+        }
+        if (payload.getType() == BitbucketWebHookEvent.Type.DELETE) {
+            listener.getLogger().printf("Branch %s of %s/%s was deleted%n", payload.getBranch(), project, repository);
+            return true;
+        }
+        if (payload.getCommitId() == null) {
+            return false;
+        }
+        Branch branch = aBranch()
+                .id(Constants.R_HEADS + payload.getBranch())
+                .displayId(payload.getBranch())
+                .latestCommit(payload.getCommitId())
+                .build();
+        observeBranch(branch, new BranchFilter(includes, excludes), criteria, observer, listener);
+        return true;
     }
 
     private void retrieveBranches(SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener) throws InterruptedException, IOException {
-        BitbucketPagingClient client = new BitbucketPagingClient(getClient());
-        listener.getLogger().printf("Looking up %s/%s for branches%n", project, repository);
+        BitbucketPagingClient client = BitbucketServerClientService.instance().getPagingClient(clientConfiguration, getOwner());
         Set<SCMHead> includedHeads = observer.getIncludes();
         BranchFilter filter = new BranchFilter(includes, excludes);
         try {
-            for (Branch branch : client.getBranches(project, repository)) {
-                checkInterrupt();
-                SCMHead head = new BranchSCMHead(branch.getDisplayId());
-                if (includedHeads != null && !includedHeads.contains(head)) {
-                    continue;
-                }
-                if (filter.isBranchAllowed(branch.getDisplayId())) {
-                    AbstractGitSCMSource.SCMRevisionImpl revision = new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getLatestCommit());
-                    listener.getLogger().printf("Checking branch %s form %s/%s%n", branch.getDisplayId(), project, repository);
-                    if (criteria != null) {
-                        if (criteria.isHead(createProbe(head, revision), listener)) {
-                            listener.getLogger().println("Met criteria");
-                        } else {
-                            listener.getLogger().println("Does not meet criteria");
+            if (includedHeads != null) {
+                retrieveIncludedBranches(client, includedHeads, filter, criteria, observer, listener);
+            } else {
+                retrieveAllBranches(client, filter, criteria, observer, listener);
+            }
+        } catch (NotFoundException e) {
+            listener.getLogger().printf("Project (%s) or repository (%s) doesn't exist anymore", project, repository);
+        }
+    }
+
+    private void retrieveAllBranches(BitbucketPagingClient client, BranchFilter filter, SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener)
+            throws InterruptedException, IOException {
+        listener.getLogger().printf("Looking up %s/%s for branches%n", project, repository);
+        // Bitbucket Server only sends the branches containing a literal part of the includes, the filter decides about them
+        List<String> filterTexts = filter.getFilterTexts();
+        // a branch that contains several filter texts is sent several times
+        Set<String> retrievedBranches = filterTexts.size() > 1 ? new HashSet<String>() : null;
+        int transferredBranches = 0;
+        int allowedBranches = 0;
+        try (BranchProbes probes = new BranchProbes(criteria, observer, listener)) {
+            for (String filterText : filterTexts.isEmpty() ? Collections.<String>singletonList(null) : filterTexts) {
+                try (PageIterable<Branch> branches = client.getBranches(project, repository, filterText)) {
+                    for (Branch branch : branches) {
+                        checkInterrupt();
+                        transferredBranches++;
+                        if (retrievedBranches != null && !retrievedBranches.add(branch.getId())) {
                             continue;
                         }
+                        if (filter.isBranchAllowed(branch.getDisplayId())) {
+                            allowedBranches++;
+                            probes.add(branch);
+                        }
+                        if (!observer.isObserving()) {
+                            return;
+                        }
                     }
-                    observer.observe(head, revision);
                 }
-                if (!observer.isObserving()) {
-                    return;
+            }
+            probes.observeAll();
+            if (!observer.isObserving()) {
+                return;
+            }
+        }
+        if (!filterTexts.isEmpty()) {
+            listener.getLogger().printf("Only the %d branches containing %s were transferred, %d of them are allowed%n",
+                                       transferredBranches, StringUtils.join(filterTexts, " or "), allowedBranches);
+        }
+    }
+
+    /**
+     * Looks up only the branches the observer wants, each with a query for its name.
+     */
+    private void retrieveIncludedBranches(BitbucketPagingClient client, Set<SCMHead> includedHeads, BranchFilter filter, SCMSourceCriteria criteria,
+                                          SCMHeadObserver observer, TaskListener listener) throws InterruptedException, IOException {
+        for (SCMHead includedHead : includedHeads) {
+            checkInterrupt();
+            String name = includedHead.getName();
+            if (!filter.isBranchAllowed(name)) {
+                continue;
+            }
+            listener.getLogger().printf("Looking up %s/%s for branch %s%n", project, repository, name);
+            // the query also returns the branches that contain the name
+            try (PageIterable<Branch> branches = client.getBranches(project, repository, name)) {
+                for (Branch branch : branches) {
+                    if (name.equals(branch.getDisplayId())) {
+                        observeBranch(branch, filter, criteria, observer, listener);
+                        break;
+                    }
                 }
             }
-        } catch (NotFoundException e) {
-            listener.getLogger().printf("Project (%s) or repository (%s) doesn't exist anymore", project, repository);
+            if (!observer.isObserving()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the branch is allowed by the filter
+     */
+    private boolean observeBranch(Branch branch, BranchFilter filter, SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!filter.isBranchAllowed(branch.getDisplayId())) {
+            return false;
         }
+        SCMHead head = new BranchSCMHead(branch.getDisplayId());
+        SCMRevision revision = revisionOf(head, branch);
+        observeBranch(head, revision, criteria == null || criteria.isHead(createProbe(head, revision), listener), criteria, observer, listener);
+        return true;
+    }
+
+    /**
+     * Remembers the author timestamp of the latest commit if the branch was listed with details, so probing the
+     * revision does not need to look up its commit.
+     */
+    private SCMRevision revisionOf(SCMHead head, Branch branch) {
+        if (branch.getAuthorTimestamp() != null) {
+            ProbeStatCache.putAuthorTimestamp(clientConfiguration, project, repository, branch.getLatestCommit(), branch.getAuthorTimestamp());
+        }
+        return new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getLatestCommit());
+    }
+
+    private void observeBranch(SCMHead head, SCMRevision revision, boolean isHead, SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener)
+            throws IOException, InterruptedException {
+        listener.getLogger().printf("Checking branch %s form %s/%s%n", head.getName(), project, repository);
+        if (criteria != null) {
+            if (isHead) {
+                listener.getLogger().println("Met criteria");
+            } else {
+                listener.getLogger().println("Does not meet criteria");
+                return;
+            }
+        }
+        observer.observe(head, revision);
     }
 
     @NonNull
@@ -205,6 +358,10 @@ public class BitbucketSCMSource extends SCMSource {
         return new BitbucketSCMProbe(head, revision, clientConfiguration, getOwner(), project, repository);
     }
 
+    BitbucketSCMFileSystem newFileSystem(SCMHead head, AbstractGitSCMSource.SCMRevisionImpl revision) {
+        return new BitbucketSCMFileSystem(head, revision, clientConfiguration, getOwner(), project, repository);
+    }
+
     private Map<String, List<Link>> getLinks() {
         return getClient().getRepository(project, repository).getLinks();
     }
@@ -238,6 +395,96 @@ public class BitbucketSCMSource extends SCMSource {
                            allOf(withId(credentialsId), anyOf(instanceOf(SSHUserPrivateKey.class))));
     }
 
+    /**
+     * Probes the criteria of several branches at the same time. The branches are observed in the order they were added,
+     * no more branches are probed ahead of the next one to observe than configured for the server.
+     */
+    private class BranchProbes implements AutoCloseable {
+
+        private final SCMSourceCriteria criteria;
+        private final SCMHeadObserver observer;
+        private final TaskListener listener;
+        private final int parallelProbes;
+        private final Deque<ProbedBranch> probedBranches = new ArrayDeque<>();
+
+        private BranchProbes(SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener) {
+            this.criteria = criteria;
+            this.observer = observer;
+            this.listener = listener;
+            this.parallelProbes = criteria != null ? clientConfiguration.getParallelProbes() : 1;
+        }
+
+        private void add(Branch branch) throws IOException, InterruptedException {
+            final SCMHead head = new BranchSCMHead(branch.getDisplayId());
+            final SCMRevision revision = revisionOf(head, branch);
+            if (parallelProbes <= 1) {
+                observeBranch(head, revision, criteria == null || criteria.isHead(createProbe(head, revision), listener), criteria, observer, listener);
+                return;
+            }
+            Future<Boolean> isHead = BitbucketServerClientService.instance().submitProbe(clientConfiguration, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException, InterruptedException {
+                    return criteria.isHead(createProbe(head, revision), listener);
+                }
+            });
+            probedBranches.add(new ProbedBranch(head, revision, isHead));
+            while (probedBranches.size() >= parallelProbes && observer.isObserving()) {
+                observeNext();
+            }
+        }
+
+        private void observeAll() throws IOException, InterruptedException {
+            while (!probedBranches.isEmpty() && observer.isObserving()) {
+                checkInterrupt();
+                observeNext();
+            }
+        }
+
+        private void observeNext() throws IOException, InterruptedException {
+            ProbedBranch probedBranch = probedBranches.poll();
+            boolean isHead;
+            try {
+                isHead = probedBranch.isHead.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            observeBranch(probedBranch.head, probedBranch.revision, isHead, criteria, observer, listener);
+        }
+
+        /**
+         * Cancels the probes of the branches that were not observed.
+         */
+        @Override
+        public void close() {
+            for (ProbedBranch probedBranch : probedBranches) {
+                probedBranch.isHead.cancel(true);
+            }
+            probedBranches.clear();
+        }
+    }
+
+    private static class ProbedBranch {
+
+        private final SCMHead head;
+        private final SCMRevision revision;
+        private final Future<Boolean> isHead;
+
+        private ProbedBranch(SCMHead head, SCMRevision revision, Future<Boolean> isHead) {
+            this.head = head;
+            this.revision = revision;
+            this.isHead = isHead;
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends SCMSourceDescriptor {
 
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.bitbucket.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jenkins.scm.api.SCMFile;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the type of the paths that were probed at a commit. The content of a commit never changes, so the entries
+ * do not expire and are shared by all sources that read a repository with the same credentials, they are only evicted
+ * once the cache is full. The same holds for the listings of the directories the paths were looked up in and for the
+ * author timestamps of the commits.
+ *
+ * @author Robin Müller
+ */
+final class ProbeStatCache {
+
+    /**
+     * The listing of a directory that has too many children to be listed with one request or could not be listed.
+     */
+    static final Map<String, SCMFile.Type> NOT_LISTABLE = Collections.unmodifiableMap(new HashMap<String, SCMFile.Type>());
+
+    private static final Cache<Key, SCMFile.Type> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(ProbeStatCache.class.getName() + ".size", 10000))
+            .build();
+    private static final Cache<Key, Map<String, SCMFile.Type>> LISTINGS = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(ProbeStatCache.class.getName() + ".listings", 1000))
+            .build();
+    private static final Cache<Key, Long> AUTHOR_TIMESTAMPS = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(ProbeStatCache.class.getName() + ".size", 10000))
+            .build();
+
+    private ProbeStatCache() {
+    }
+
+    /**
+     * @return the type of the path at the commit, {@code null} if it was not probed yet
+     */
+    static SCMFile.Type get(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, String path) {
+        return CACHE.getIfPresent(new Key(clientConfiguration, project, repository, commitHash, path));
+    }
+
+    static void put(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, String path, SCMFile.Type type) {
+        CACHE.put(new Key(clientConfiguration, project, repository, commitHash, path), type);
+    }
+
+    /**
+     * @return the types of the children of the directory at the commit by their names, {@link #NOT_LISTABLE} if it
+     * cannot be listed, {@code null} if it was not listed yet
+     */
+    static Map<String, SCMFile.Type> getListing(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, String directory) {
+        return LISTINGS.getIfPresent(new Key(clientConfiguration, project, repository, commitHash, directory));
+    }
+
+    static void putListing(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, String directory, Map<String, SCMFile.Type> listing) {
+        LISTINGS.put(new Key(clientConfiguration, project, repository, commitHash, directory), listing);
+    }
+
+    /**
+     * @return the author timestamp of the commit, {@code null} if it is not known yet
+     */
+    static Long getAuthorTimestamp(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash) {
+        return AUTHOR_TIMESTAMPS.getIfPresent(new Key(clientConfiguration, project, repository, commitHash, null));
+    }
+
+    static void putAuthorTimestamp(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, long authorTimestamp) {
+        AUTHOR_TIMESTAMPS.put(new Key(clientConfiguration, project, repository, commitHash, null), authorTimestamp);
+    }
+
+    static void invalidateAll() {
+        CACHE.invalidateAll();
+        LISTINGS.invalidateAll();
+        AUTHOR_TIMESTAMPS.invalidateAll();
+    }
+
+    private static class Key {
+        private final String baseUrl;
+        private final String credentialsId;
+        private final String project;
+        private final String repository;
+        private final String commitHash;
+        private final String path;
+
+        private Key(BitbucketClientConfiguration clientConfiguration, String project, String repository, String commitHash, String path) {
+            this.baseUrl = baseUrl;
+            this.project = project;
+            this.repository = repository;
+            this.commitHash = commitHash;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return new EqualsBuilder()
+                    .append(baseUrl, key.baseUrl)
+                    .append(credentialsId, key.credentialsId)
+                    .append(project, key.project)
+                    .append(repository, key.repository)
+                    .append(commitHash, key.commitHash)
+                    .append(path, key.path)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(17, 37)
+                    .append(baseUrl)
+                    .append(credentialsId)
+                    .append(project)
+                    .append(repository)
+                    .append(commitHash)
+                    .append(path)
+                    .toHashCode();
+        }
+    }
+}
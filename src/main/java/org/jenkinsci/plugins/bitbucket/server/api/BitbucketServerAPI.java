@@ -5,6 +5,7 @@ import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
 import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
 import org.jenkinsci.plugins.bitbucket.server.api.model.BuildStatus;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryListing;
 import org.jenkinsci.plugins.bitbucket.server.api.model.HookAddon;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Repository;
@@ -19,6 +20,7 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.io.InputStream;
 
 /**
  * @author Robin Müller
@@ -44,6 +46,7 @@ public interface BitbucketServerAPI {
     @Path("/api/1.0/projects/{project}/repos/{repositorySlug}/branches")
     Page<Branch> getBranches(@PathParam("project") String project,
                              @PathParam("repositorySlug") String repositorySlug,
+                             @QueryParam("filterText") String filterText,
                              @QueryParam("start") Integer start,
                              @QueryParam("limit") Integer limit);
 
@@ -63,6 +66,23 @@ public interface BitbucketServerAPI {
                       @QueryParam("at") String at,
                       @QueryParam("type") boolean type);
 
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/api/1.0/projects/{project}/repos/{repositorySlug}/browse/{path}")
+    DirectoryListing browseDirectory(@PathParam("project") String project,
+                                     @PathParam("repositorySlug") String repositorySlug,
+                                     @PathParam("path") String path,
+                                     @QueryParam("at") String at,
+                                     @QueryParam("start") Integer start,
+                                     @QueryParam("limit") Integer limit);
+
+    @GET
+    @Path("/api/1.0/projects/{project}/repos/{repositorySlug}/raw/{path}")
+    InputStream getRawContent(@PathParam("project") String project,
+                              @PathParam("repositorySlug") String repositorySlug,
+                              @PathParam("path") String path,
+                              @QueryParam("at") String at);
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/api/1.0/projects/{project}/repos/{repositorySlug}/settings/hooks")
@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.bitbucket.server.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BuildStatus;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.jenkinsci.plugins.bitbucket.server.api.model.HookAddon;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+
+/**
+ * Non-blocking variant of {@link BitbucketServerAPI}. The returned futures fail with the same exceptions the blocking
+ * calls throw.
+ *
+ * @author Robin Müller
+ */
+public interface BitbucketServerAsyncAPI {
+
+    ListenableFuture<Page<Branch>> getBranches(String project, String repositorySlug, String filterText, Integer start, Integer limit);
+
+    ListenableFuture<Commit> getCommit(String project, String repositorySlug, String commitId);
+
+    ListenableFuture<BrowsePath> browse(String project, String repositorySlug, String path, String at, boolean type);
+
+    ListenableFuture<Page<HookAddon>> getHooks(String project, String repositorySlug, Integer start, Integer limit);
+
+    ListenableFuture<JsonNode> getHookSettings(String project, String repositorySlug, String key);
+
+    ListenableFuture<JsonNode> updateHookSettings(String project, String repositorySlug, String key, Object hookSettings);
+
+    ListenableFuture<Void> updateBuildStatus(String commitId, BuildStatus buildStatus);
+}
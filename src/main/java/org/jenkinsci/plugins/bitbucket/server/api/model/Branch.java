@@ -1,11 +1,14 @@
 package org.jenkinsci.plugins.bitbucket.server.api.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
 
+import java.util.Map;
+
 /**
  * @author Robin Müller
  */
@@ -13,10 +16,13 @@ import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
 @BitbucketPojoBuilder
 public class Branch {
 
+    private static final String LATEST_COMMIT_METADATA = "com.atlassian.bitbucket.server.bitbucket-branch:latest-commit-metadata";
+
     private String id;
     private String displayId;
     private String latestCommit;
     private Boolean isDefault;
+    private Long authorTimestamp;
 
     public String getId() {
         return id;
@@ -50,6 +56,35 @@ public class Branch {
         isDefault = aDefault;
     }
 
+    /**
+     * @return the author timestamp of the latest commit, {@code null} if the branch was listed without details
+     */
+    public Long getAuthorTimestamp() {
+        return authorTimestamp;
+    }
+
+    public void setAuthorTimestamp(Long authorTimestamp) {
+        this.authorTimestamp = authorTimestamp;
+    }
+
+    /**
+     * Bitbucket Server only sends the metadata if the branches are listed with details. Plugins add metadata of any
+     * shape, only the one of the latest commit is read. A {@code null} metadata is ignored.
+     */
+    @JsonProperty("metadata")
+    private void unpackMetadata(Map<String, Object> metadata) {
+        if (metadata == null) {
+            return;
+        }
+        Object latestCommitMetadata = metadata.get(LATEST_COMMIT_METADATA);
+        if (latestCommitMetadata instanceof Map) {
+            Object timestamp = ((Map<?, ?>) latestCommitMetadata).get("authorTimestamp");
+            if (timestamp instanceof Number) {
+                authorTimestamp = ((Number) timestamp).longValue();
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -64,6 +99,7 @@ public class Branch {
                 .append(displayId, branch.displayId)
                 .append(latestCommit, branch.latestCommit)
                 .append(isDefault, branch.isDefault)
+                .append(authorTimestamp, branch.authorTimestamp)
                 .isEquals();
     }
 
@@ -74,6 +110,7 @@ public class Branch {
                 .append(displayId)
                 .append(latestCommit)
                 .append(isDefault)
+                .append(authorTimestamp)
                 .toHashCode();
     }
 
@@ -84,6 +121,7 @@ public class Branch {
                 .append("displayId", displayId)
                 .append("lastCommit", latestCommit)
                 .append("isDefault", isDefault)
+                .append("authorTimestamp", authorTimestamp)
                 .toString();
     }
 }
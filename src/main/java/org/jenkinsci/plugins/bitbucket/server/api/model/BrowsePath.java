@@ -14,7 +14,7 @@ import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
 public class BrowsePath {
 
     public enum Type {
-        FILE, DIRECTORY
+        FILE, DIRECTORY, SUBMODULE
     }
 
     private Type type;
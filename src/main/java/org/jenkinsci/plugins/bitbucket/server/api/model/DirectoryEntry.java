@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.bitbucket.server.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
+
+import java.util.Map;
+
+/**
+ * @author Robin Müller
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@BitbucketPojoBuilder
+public class DirectoryEntry {
+
+    private String name;
+    private BrowsePath.Type type;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public BrowsePath.Type getType() {
+        return type;
+    }
+
+    public void setType(BrowsePath.Type type) {
+        this.type = type;
+    }
+
+    /**
+     * Bitbucket Server describes the path of a child with its components, only the name is relevant in a listing.
+     */
+    @JsonProperty("path")
+    private void unpackPath(Map<String, Object> path) {
+        name = (String) path.get("name");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DirectoryEntry that = (DirectoryEntry) o;
+        return new EqualsBuilder()
+                .append(name, that.name)
+                .append(type, that.type)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37)
+                .append(name)
+                .append(type)
+                .toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("name", name)
+                .append("type", type)
+                .toString();
+    }
+}
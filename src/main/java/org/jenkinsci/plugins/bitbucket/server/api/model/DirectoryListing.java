@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.bitbucket.server.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
+
+/**
+ * The children of a directory at a commit. Browsing a file does not list any children.
+ *
+ * @author Robin Müller
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@BitbucketPojoBuilder
+public class DirectoryListing {
+
+    private Page<DirectoryEntry> children;
+
+    public Page<DirectoryEntry> getChildren() {
+        return children;
+    }
+
+    public void setChildren(Page<DirectoryEntry> children) {
+        this.children = children;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DirectoryListing that = (DirectoryListing) o;
+        return new EqualsBuilder()
+                .append(children, that.children)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37)
+                .append(children)
+                .toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("children", children)
+                .toString();
+    }
+}
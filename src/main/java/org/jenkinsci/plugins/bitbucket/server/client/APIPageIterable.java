@@ -3,44 +3,296 @@ package org.jenkinsci.plugins.bitbucket.server.client;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
 import org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest;
 
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
-
-import static org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest.nextPage;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
+ * Iterates over the values of all pages of a paged resource.
+ * <p>
+ * With a prefetch executor the next page is requested as soon as the current page is known not to be the last one,
+ * so the network round trip overlaps with the processing of the current page. Closing the iterable cancels a
+ * prefetch that is still running and closes a prefetched page that was not iterated.
+ * <p>
+ * If more than one page may be fetched in parallel, the pages at the following offsets are requested at the same
+ * time once the first page told the page size. Bitbucket Server does not tell the number of pages up front, so the
+ * requests beyond the last page are cancelled when it arrives. The pages are iterated in order, values that moved
+ * to the next page while it was requested are only returned once if the iterable {@link #keyOf(Object) identifies}
+ * them. If the server returns fewer values than a page was requested with, e.g. because it limits the page size, the
+ * offsets of the following requests are wrong; they are cancelled and the remaining pages are requested one by one.
+ *
  * @author Robin Müller
  */
-abstract class APIPageIterable<T> implements Iterable<T> {
+abstract class APIPageIterable<T> implements PageIterable<T> {
+
+    private final PageSize pageSize;
+    private final ExecutorService prefetchExecutor;
+    private final int parallelPages;
+    private final List<APIPageIterator> iterators = new ArrayList<>();
+
+    APIPageIterable() {
+        this(PageSize.SERVER_DEFAULT, null, 1);
+    }
+
+    /**
+     * @param prefetchExecutor the executor the next pages are requested on, {@code null} to request a page when it is
+     *                         reached
+     * @param parallelPages    the number of pages that are requested on the executor at the same time
+     */
+    APIPageIterable(PageSize pageSize, ExecutorService prefetchExecutor, int parallelPages) {
+        this.pageSize = pageSize;
+        this.prefetchExecutor = prefetchExecutor;
+        this.parallelPages = Math.max(1, parallelPages);
+    }
 
     @Override
     public Iterator<T> iterator() {
-        return new APIPageIterator();
+        APIPageIterator iterator = new APIPageIterator();
+        iterators.add(iterator);
+        return iterator;
+    }
+
+    @Override
+    public void close() {
+        for (APIPageIterator iterator : iterators) {
+            iterator.close();
+        }
+        iterators.clear();
     }
 
     protected abstract Page<T> getNextPage(PageRequest pageRequest);
 
+    /**
+     * @return the key that identifies a value across pages, {@code null} if values are not deduplicated
+     */
+    protected Object keyOf(T value) {
+        return null;
+    }
+
     public class APIPageIterator implements Iterator<T> {
 
-        private Page<T> currentPage;
+        private final Deque<Future<FetchedPage<T>>> pendingPages = new ArrayDeque<>();
+        private final Set<Object> seenKeys = parallelPages > 1 ? new HashSet<>() : null;
+        private FetchedPage<T> currentPage;
         private Iterator<T> currentPageIterator;
+        private T nextValue;
+        private int nextStart;
+        private int nextLimit;
+        private boolean sequential;
+        private PageRequest resumeRequest;
+        private volatile boolean closed;
 
         @Override
         public boolean hasNext() {
-            if (currentPageIterator == null || (!currentPageIterator.hasNext() && !currentPage.getIsLastPage())) {
-                currentPage = getNextPage(nextPage(currentPage));
-                currentPageIterator = currentPage.getValues().iterator();
+            while (nextValue == null) {
+                if (currentPageIterator != null && currentPageIterator.hasNext()) {
+                    T value = currentPageIterator.next();
+                    if (isFirstOccurrence(value)) {
+                        nextValue = value;
+                    }
+                } else if (currentPageIterator == null || !currentPage.page.getIsLastPage()) {
+                    fetchNextPage();
+                } else {
+                    return false;
+                }
             }
-            return currentPageIterator.hasNext();
+            return true;
         }
 
         @Override
         public T next() {
-            return currentPageIterator.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T value = nextValue;
+            nextValue = null;
+            return value;
         }
 
         @Override
         public void remove() {
             throw new UnsupportedOperationException("remove");
         }
+
+        private boolean isFirstOccurrence(T value) {
+            if (seenKeys == null) {
+                return true;
+            }
+            Object key = keyOf(value);
+            return key == null || seenKeys.add(key);
+        }
+
+        private void fetchNextPage() {
+            if (!pendingPages.isEmpty()) {
+                currentPage = await(pendingPages.poll());
+                if (parallelPages > 1 && !sequential) {
+                    resumeRequest = resumeRequest(currentPage);
+                    sequential = resumeRequest != null;
+                }
+            } else if (currentPage == null) {
+                currentPage = fetch(pageSize.nextPage(null, 0), false);
+            } else if (resumeRequest != null) {
+                currentPage = fetch(resumeRequest, false);
+                resumeRequest = null;
+            } else {
+                currentPage = fetch(pageSize.nextPage(currentPage.page, currentPage.responseNanos), false);
+            }
+            currentPageIterator = valuesOf(currentPage.page);
+            if (Boolean.TRUE.equals(currentPage.page.getIsLastPage()) || sequential) {
+                cancelPendingPages();
+            } else if (prefetchExecutor != null) {
+                requestPendingPages();
+            }
+        }
+
+        /**
+         * @return the request of the page that follows a page the server returned fewer values for than requested,
+         * {@code null} if the page matches its request
+         */
+        private PageRequest resumeRequest(FetchedPage<T> fetched) {
+            Page<T> page = fetched.page;
+            PageRequest request = fetched.request;
+            if (Boolean.TRUE.equals(page.getIsLastPage()) || request == null || request.getStart() == null || request.getLimit() == null) {
+                return null;
+            }
+            int returned = page.getValues().size();
+            if (returned >= request.getLimit() && request.getLimit().equals(page.getLimit())) {
+                return null;
+            }
+            int size = returned > 0 || page.getLimit() == null ? returned : page.getLimit();
+            return pageSize.nextPage(request.getStart(), Math.max(size, 1), fetched.responseNanos);
+        }
+
+        private FetchedPage<T> fetch(PageRequest pageRequest, boolean buffered) {
+            long start = System.nanoTime();
+            Page<T> page = getNextPage(pageRequest);
+            // a streamed page is measured until its values start to arrive
+            long responseNanos = System.nanoTime() - start;
+            if (buffered && page instanceof StreamingPage) {
+                // a response that waits behind other pages is read right away, so the server is not kept waiting
+                page = buffer((StreamingPage<T>) page);
+            }
+            return new FetchedPage<>(pageRequest, page, responseNanos);
+        }
+
+        private void requestPendingPages() {
+            Page<T> page = currentPage.page;
+            // a streamed page may only know its start once its values have been read, the start of its request is used
+            if (page.getIsLastPage() == null || page.getLimit() == null) {
+                return;
+            }
+            if (pendingPages.isEmpty()) {
+                PageRequest request = currentPage.request;
+                int start = request != null && request.getStart() != null ? request.getStart() : 0;
+                PageRequest next = pageSize.nextPage(start, page.getLimit(), currentPage.responseNanos);
+                nextStart = next.getStart();
+                nextLimit = next.getLimit();
+            }
+            while (pendingPages.size() < parallelPages) {
+                pendingPages.add(submit(new PageRequest(nextStart, nextLimit)));
+                nextStart += nextLimit;
+            }
+        }
+
+        private Future<FetchedPage<T>> submit(final PageRequest pageRequest) {
+            final RequestPriority priority = RequestPriority.current();
+            final RequestDeadline deadline = RequestDeadline.current();
+            final boolean buffered = parallelPages > 1;
+            return prefetchExecutor.submit(new Callable<FetchedPage<T>>() {
+                @Override
+                public FetchedPage<T> call() {
+                    try (RequestPriority.Scope scope = RequestPriority.enter(priority);
+                         RequestDeadline boundDeadline = RequestDeadline.bind(deadline)) {
+                        FetchedPage<T> fetched = fetch(pageRequest, buffered);
+                        if (closed) {
+                            closePage(fetched);
+                        }
+                        return fetched;
+                    }
+                }
+            });
+        }
+
+        private FetchedPage<T> await(Future<FetchedPage<T>> pendingPage) {
+            try {
+                return pendingPage.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessingException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ProcessingException(e.getCause());
+            }
+        }
+
+        private void close() {
+            closed = true;
+            closePage(currentPage);
+            cancelPendingPages();
+        }
+
+        private void cancelPendingPages() {
+            for (Future<FetchedPage<T>> pendingPage : pendingPages) {
+                if (!pendingPage.cancel(true)) {
+                    try {
+                        closePage(pendingPage.get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException | CancellationException e) {
+                        // the page is not needed anymore
+                    }
+                }
+            }
+            pendingPages.clear();
+        }
+
+        private Iterator<T> valuesOf(Page<T> page) {
+            if (page instanceof StreamingPage) {
+                return ((StreamingPage<T>) page).iterator();
+            }
+            return page.getValues().iterator();
+        }
+
+        private void closePage(FetchedPage<T> fetched) {
+            if (fetched != null && fetched.page instanceof StreamingPage) {
+                ((StreamingPage<T>) fetched.page).close();
+            }
+        }
+    }
+
+    private static <T> Page<T> buffer(StreamingPage<T> streamingPage) {
+        Page<T> page = new Page<>();
+        page.setValues(streamingPage.getValues());
+        page.setSize(streamingPage.getSize());
+        page.setLimit(streamingPage.getLimit());
+        page.setStart(streamingPage.getStart());
+        page.setIsLastPage(streamingPage.getIsLastPage());
+        return page;
+    }
+
+    private static class FetchedPage<T> {
+
+        private final PageRequest request;
+        private final Page<T> page;
+        private final long responseNanos;
+
+        private FetchedPage(PageRequest request, Page<T> page, long responseNanos) {
+            this.request = request;
+            this.page = page;
+            this.responseNanos = responseNanos;
+        }
     }
 }
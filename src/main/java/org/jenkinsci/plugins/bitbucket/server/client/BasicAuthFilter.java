@@ -7,15 +7,21 @@ import javax.annotation.Priority;
 import javax.ws.rs.Priorities;
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * Adds the basic authentication header. Credentials are immutable, changed credentials get a new client and with it a
+ * new filter, so the header value is only encoded once.
+ *
  * @author Robin Müller
  */
 @Priority(Priorities.HEADER_DECORATOR)
 class BasicAuthFilter implements ClientRequestFilter {
 
     private final StandardUsernamePasswordCredentials credentials;
+    private volatile String header;
 
     BasicAuthFilter(StandardUsernamePasswordCredentials credentials) {
         this.credentials = credentials;
@@ -24,12 +30,17 @@ class BasicAuthFilter implements ClientRequestFilter {
     @Override
     public void filter(ClientRequestContext requestContext) throws IOException {
         if (credentials != null) {
-            requestContext.getHeaders().add("Authorization", getBasicAuthentication());
+            requestContext.getHeaders().add(HttpHeaders.AUTHORIZATION, getBasicAuthentication());
         }
     }
 
     private String getBasicAuthentication() {
-        String token = credentials.getUsername() + ":" + credentials.getPassword().getPlainText();
-        return "Basic " + Base64.encodeBase64String(token.getBytes());
+        String current = header;
+        if (current == null) {
+            String token = credentials.getUsername() + ":" + credentials.getPassword().getPlainText();
+            current = "Basic " + Base64.encodeBase64String(token.getBytes(StandardCharsets.UTF_8));
+            header = current;
+        }
+        return current;
     }
 }
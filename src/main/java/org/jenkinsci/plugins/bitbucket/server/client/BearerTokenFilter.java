@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+
+/**
+ * Sends the password of the credentials as bearer token, which is how Bitbucket Server expects HTTP access tokens. Like
+ * in {@link BasicAuthFilter} the header value is only built once.
+ *
+ * @author Robin Müller
+ */
+@Priority(Priorities.HEADER_DECORATOR)
+class BearerTokenFilter implements ClientRequestFilter {
+
+    private final StandardUsernamePasswordCredentials credentials;
+    private volatile String header;
+
+    BearerTokenFilter(StandardUsernamePasswordCredentials credentials) {
+        this.credentials = credentials;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        if (credentials != null) {
+            requestContext.getHeaders().add(HttpHeaders.AUTHORIZATION, getBearerToken());
+        }
+    }
+
+    private String getBearerToken() {
+        String current = header;
+        if (current == null) {
+            current = "Bearer " + credentials.getPassword().getPlainText();
+            header = current;
+        }
+        return current;
+    }
+}
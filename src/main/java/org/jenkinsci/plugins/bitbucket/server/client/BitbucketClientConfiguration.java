@@ -6,12 +6,77 @@ import org.apache.commons.lang.builder.ToStringBuilder;
 import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
 
 /**
+ * Connection settings of one Bitbucket Server.
+ * <p>
+ * All tuning values are optional. If a value is not set, the default is taken from the system property
+ * {@code org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration.<name>}. Sources, navigators and
+ * build status notifications only configure the base URL and the credentials, so for them the system properties are
+ * the way to tune the clients. The setters are meant for code that builds a configuration before it is used, a
+ * configuration must not be changed once clients were created with it.
+ * <p>
+ * The features that change how requests are sent are off unless they are configured: pooled connections, the
+ * response cache, compression, the rate limit, retries, the circuit breaker, the concurrent request limit, page
+ * prefetching, parallel pages and probes, directory listing probes and branch details. Only the connect and read
+ * timeouts are on by default, without them a server that stops answering blocks a scan and its executor for good.
+ * <p>
+ * The request rate, the concurrent requests, the circuit breaker and the async threads are server-level settings:
+ * their limits and threads are shared by all configurations of a base URL and taken from the configuration that was
+ * used first.
+ *
  * @author Robin Müller
  */
 public class BitbucketClientConfiguration {
 
+    private static final String PROPERTY_PREFIX = BitbucketClientConfiguration.class.getName() + ".";
+
+    public enum AuthenticationMode {
+        /**
+         * Every request sends the username and password.
+         */
+        BASIC,
+        /**
+         * The username and password are only sent until the server started a session, the following requests send the
+         * session cookie.
+         */
+        SESSION,
+        /**
+         * The password of the credentials is an HTTP access token that is sent as bearer token.
+         */
+        TOKEN
+    }
+
     private final String baseUrl;
     private final String credentialsId;
+    private Boolean pooledConnections;
+    private Integer maxConnections;
+    private Integer maxConnectionsPerRoute;
+    private Integer connectionIdleTimeout;
+    private Integer responseCacheSize;
+    private Boolean compression;
+    private Double requestsPerSecond;
+    private Integer rateLimitRetries;
+    private Integer retries;
+    private Integer circuitBreakerThreshold;
+    private Integer circuitBreakerDelay;
+    private Integer asyncThreads;
+    private AuthenticationMode authenticationMode;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private Integer branchesTimeout;
+    private Integer browseTimeout;
+    private Integer buildStatusTimeout;
+    private Integer scanTimeout;
+    private Integer maxConcurrentRequests;
+    private Integer pageSize;
+    private Integer repositoriesPageSize;
+    private Integer branchesPageSize;
+    private Integer maxPageSize;
+    private Integer pageResponseTimeTarget;
+    private Boolean prefetchPages;
+    private Integer parallelPages;
+    private Integer parallelProbes;
+    private Boolean directoryListingProbes;
+    private Boolean branchDetails;
 
     @BitbucketPojoBuilder
     public BitbucketClientConfiguration(String baseUrl, String credentialsId) {
@@ -27,6 +92,339 @@ public class BitbucketClientConfiguration {
         return credentialsId;
     }
 
+    /**
+     * @return {@code true} if requests are sent through a pooled keep-alive connector instead of the JDK
+     * {@code HttpURLConnection}
+     */
+    public boolean isPooledConnections() {
+        return pooledConnections != null ? pooledConnections : Boolean.getBoolean(PROPERTY_PREFIX + "pooledConnections");
+    }
+
+    public void setPooledConnections(Boolean pooledConnections) {
+        this.pooledConnections = pooledConnections;
+    }
+
+    /**
+     * @return the maximum number of open connections to this server
+     */
+    public int getMaxConnections() {
+        return maxConnections != null ? maxConnections : Integer.getInteger(PROPERTY_PREFIX + "maxConnections", 50);
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the maximum number of open connections per route (host and port) of this server
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute != null ? maxConnectionsPerRoute : Integer.getInteger(PROPERTY_PREFIX + "maxConnectionsPerRoute", 20);
+    }
+
+    public void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the time in seconds after which an idle pooled connection is closed
+     */
+    public int getConnectionIdleTimeout() {
+        return connectionIdleTimeout != null ? connectionIdleTimeout : Integer.getInteger(PROPERTY_PREFIX + "connectionIdleTimeout", 60);
+    }
+
+    public void setConnectionIdleTimeout(Integer connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    /**
+     * @return the maximum size in kilobytes of the responses kept per client for conditional GET requests, {@code 0}
+     * disables the cache
+     */
+    public int getResponseCacheSize() {
+        return responseCacheSize != null ? responseCacheSize : Integer.getInteger(PROPERTY_PREFIX + "responseCacheSize", 0);
+    }
+
+    public void setResponseCacheSize(Integer responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    /**
+     * @return {@code true} if gzip or deflate encoded responses are requested from the server
+     */
+    public boolean isCompression() {
+        return compression != null ? compression : Boolean.getBoolean(PROPERTY_PREFIX + "compression");
+    }
+
+    public void setCompression(Boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return the permits per second of the request rate limiter, {@code 0} if the requests are not limited
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond != null ? requestsPerSecond : Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "requestsPerSecond", "0"));
+    }
+
+    public void setRequestsPerSecond(Double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * @return how often a request rejected with {@code 429 Too Many Requests} is retried, {@code 0} to fail it right away
+     */
+    public int getRateLimitRetries() {
+        return rateLimitRetries != null ? rateLimitRetries : Integer.getInteger(PROPERTY_PREFIX + "rateLimitRetries", 0);
+    }
+
+    public void setRateLimitRetries(Integer rateLimitRetries) {
+        this.rateLimitRetries = rateLimitRetries;
+    }
+
+    /**
+     * @return how often an idempotent request is retried after a connection problem or an unavailable server, {@code 0}
+     * to fail it right away
+     */
+    public int getRetries() {
+        return retries != null ? retries : Integer.getInteger(PROPERTY_PREFIX + "retries", 0);
+    }
+
+    public void setRetries(Integer retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * @return the number of consecutive failures after which no more requests are sent to the server, {@code 0} disables the circuit breaker
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold != null ? circuitBreakerThreshold : Integer.getInteger(PROPERTY_PREFIX + "circuitBreakerThreshold", 0);
+    }
+
+    public void setCircuitBreakerThreshold(Integer circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * @return the time in seconds after which a trial request is sent to a server that was considered unavailable
+     */
+    public int getCircuitBreakerDelay() {
+        return circuitBreakerDelay != null ? circuitBreakerDelay : Integer.getInteger(PROPERTY_PREFIX + "circuitBreakerDelay", 30);
+    }
+
+    public void setCircuitBreakerDelay(Integer circuitBreakerDelay) {
+        this.circuitBreakerDelay = circuitBreakerDelay;
+    }
+
+    /**
+     * @return the number of threads that execute the asynchronous requests to the server
+     */
+    public int getAsyncThreads() {
+        return asyncThreads != null ? asyncThreads : Integer.getInteger(PROPERTY_PREFIX + "asyncThreads", 4);
+    }
+
+    public void setAsyncThreads(Integer asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * @return how the requests are authenticated
+     */
+    public AuthenticationMode getAuthenticationMode() {
+        return authenticationMode != null ? authenticationMode : AuthenticationMode.valueOf(System.getProperty(PROPERTY_PREFIX + "authenticationMode", AuthenticationMode.BASIC.name()));
+    }
+
+    public void setAuthenticationMode(AuthenticationMode authenticationMode) {
+        this.authenticationMode = authenticationMode;
+    }
+
+    /**
+     * @return the connect timeout in seconds, {@code 0} waits forever
+     */
+    public int getConnectTimeout() {
+        return connectTimeout != null ? connectTimeout : Integer.getInteger(PROPERTY_PREFIX + "connectTimeout", 10);
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the read timeout in seconds, {@code 0} waits forever
+     */
+    public int getReadTimeout() {
+        return readTimeout != null ? readTimeout : Integer.getInteger(PROPERTY_PREFIX + "readTimeout", 60);
+    }
+
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the time in seconds one page of branches may take including retries, {@code 0} for no limit
+     */
+    public int getBranchesTimeout() {
+        return branchesTimeout != null ? branchesTimeout : Integer.getInteger(PROPERTY_PREFIX + "branchesTimeout", 0);
+    }
+
+    public void setBranchesTimeout(Integer branchesTimeout) {
+        this.branchesTimeout = branchesTimeout;
+    }
+
+    /**
+     * @return the time in seconds browsing a path may take including retries, {@code 0} for no limit
+     */
+    public int getBrowseTimeout() {
+        return browseTimeout != null ? browseTimeout : Integer.getInteger(PROPERTY_PREFIX + "browseTimeout", 0);
+    }
+
+    public void setBrowseTimeout(Integer browseTimeout) {
+        this.browseTimeout = browseTimeout;
+    }
+
+    /**
+     * @return the time in seconds posting a build status may take, {@code 0} for no limit
+     */
+    public int getBuildStatusTimeout() {
+        return buildStatusTimeout != null ? buildStatusTimeout : Integer.getInteger(PROPERTY_PREFIX + "buildStatusTimeout", 0);
+    }
+
+    public void setBuildStatusTimeout(Integer buildStatusTimeout) {
+        this.buildStatusTimeout = buildStatusTimeout;
+    }
+
+    /**
+     * @return the time in seconds all requests of a repository or project scan may take, {@code 0} for no limit
+     */
+    public int getScanTimeout() {
+        return scanTimeout != null ? scanTimeout : Integer.getInteger(PROPERTY_PREFIX + "scanTimeout", 0);
+    }
+
+    public void setScanTimeout(Integer scanTimeout) {
+        this.scanTimeout = scanTimeout;
+    }
+
+    /**
+     * @return the number of requests that may be in flight to the server at the same time, {@code 0} for no limit
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests != null ? maxConcurrentRequests : Integer.getInteger(PROPERTY_PREFIX + "maxConcurrentRequests", 0);
+    }
+
+    public void setMaxConcurrentRequests(Integer maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * @return the number of values per page of the paged resources, {@code 0} for the server's default
+     */
+    public int getPageSize() {
+        return pageSize != null ? pageSize : Integer.getInteger(PROPERTY_PREFIX + "pageSize", 0);
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the number of repositories per page, defaults to {@link #getPageSize()}
+     */
+    public int getRepositoriesPageSize() {
+        return repositoriesPageSize != null ? repositoriesPageSize : Integer.getInteger(PROPERTY_PREFIX + "repositoriesPageSize", getPageSize());
+    }
+
+    public void setRepositoriesPageSize(Integer repositoriesPageSize) {
+        this.repositoriesPageSize = repositoriesPageSize;
+    }
+
+    /**
+     * @return the number of branches per page, defaults to {@link #getPageSize()}
+     */
+    public int getBranchesPageSize() {
+        return branchesPageSize != null ? branchesPageSize : Integer.getInteger(PROPERTY_PREFIX + "branchesPageSize", getPageSize());
+    }
+
+    public void setBranchesPageSize(Integer branchesPageSize) {
+        this.branchesPageSize = branchesPageSize;
+    }
+
+    /**
+     * @return the largest page size the server accepts, larger page sizes are reduced to it
+     */
+    public int getMaxPageSize() {
+        return maxPageSize != null ? maxPageSize : Integer.getInteger(PROPERTY_PREFIX + "maxPageSize", 1000);
+    }
+
+    public void setMaxPageSize(Integer maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * @return the response time in milliseconds the page sizes are adapted to, {@code 0} to keep the page sizes fixed
+     */
+    public int getPageResponseTimeTarget() {
+        return pageResponseTimeTarget != null ? pageResponseTimeTarget : Integer.getInteger(PROPERTY_PREFIX + "pageResponseTimeTarget", 0);
+    }
+
+    public void setPageResponseTimeTarget(Integer pageResponseTimeTarget) {
+        this.pageResponseTimeTarget = pageResponseTimeTarget;
+    }
+
+    /**
+     * @return whether the next page of a paged resource is requested while the current one is processed
+     */
+    public boolean isPrefetchPages() {
+        return prefetchPages != null ? prefetchPages : Boolean.getBoolean(PROPERTY_PREFIX + "prefetchPages");
+    }
+
+    public void setPrefetchPages(Boolean prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+    /**
+     * @return the number of pages of a paged resource that are requested at the same time, {@code 1} to request them one by one
+     */
+    public int getParallelPages() {
+        return parallelPages != null ? parallelPages : Integer.getInteger(PROPERTY_PREFIX + "parallelPages", 1);
+    }
+
+    public void setParallelPages(Integer parallelPages) {
+        this.parallelPages = parallelPages;
+    }
+
+    /**
+     * @return the number of branches whose criteria are probed at the same time, {@code 1} to probe them one by one
+     */
+    public int getParallelProbes() {
+        return parallelProbes != null ? parallelProbes : Integer.getInteger(PROPERTY_PREFIX + "parallelProbes", 1);
+    }
+
+    public void setParallelProbes(Integer parallelProbes) {
+        this.parallelProbes = parallelProbes;
+    }
+
+    /**
+     * @return {@code true} if probes answer the paths of a directory from one listing of it instead of browsing each path
+     */
+    public boolean isDirectoryListingProbes() {
+        return directoryListingProbes != null ? directoryListingProbes : Boolean.getBoolean(PROPERTY_PREFIX + "directoryListingProbes");
+    }
+
+    public void setDirectoryListingProbes(Boolean directoryListingProbes) {
+        this.directoryListingProbes = directoryListingProbes;
+    }
+
+    /**
+     * @return {@code true} if branches are listed with the metadata of their latest commit, so probes do not need to look up commits
+     */
+    public boolean isBranchDetails() {
+        return branchDetails != null ? branchDetails : Boolean.getBoolean(PROPERTY_PREFIX + "branchDetails");
+    }
+
+    public void setBranchDetails(Boolean branchDetails) {
+        this.branchDetails = branchDetails;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -39,6 +437,36 @@ public class BitbucketClientConfiguration {
         return new EqualsBuilder()
                 .append(baseUrl, that.baseUrl)
                 .append(credentialsId, that.credentialsId)
+                .append(pooledConnections, that.pooledConnections)
+                .append(maxConnections, that.maxConnections)
+                .append(maxConnectionsPerRoute, that.maxConnectionsPerRoute)
+                .append(connectionIdleTimeout, that.connectionIdleTimeout)
+                .append(responseCacheSize, that.responseCacheSize)
+                .append(compression, that.compression)
+                .append(requestsPerSecond, that.requestsPerSecond)
+                .append(rateLimitRetries, that.rateLimitRetries)
+                .append(retries, that.retries)
+                .append(circuitBreakerThreshold, that.circuitBreakerThreshold)
+                .append(circuitBreakerDelay, that.circuitBreakerDelay)
+                .append(asyncThreads, that.asyncThreads)
+                .append(authenticationMode, that.authenticationMode)
+                .append(connectTimeout, that.connectTimeout)
+                .append(readTimeout, that.readTimeout)
+                .append(branchesTimeout, that.branchesTimeout)
+                .append(browseTimeout, that.browseTimeout)
+                .append(buildStatusTimeout, that.buildStatusTimeout)
+                .append(scanTimeout, that.scanTimeout)
+                .append(maxConcurrentRequests, that.maxConcurrentRequests)
+                .append(pageSize, that.pageSize)
+                .append(repositoriesPageSize, that.repositoriesPageSize)
+                .append(branchesPageSize, that.branchesPageSize)
+                .append(maxPageSize, that.maxPageSize)
+                .append(pageResponseTimeTarget, that.pageResponseTimeTarget)
+                .append(prefetchPages, that.prefetchPages)
+                .append(parallelPages, that.parallelPages)
+                .append(parallelProbes, that.parallelProbes)
+                .append(directoryListingProbes, that.directoryListingProbes)
+                .append(branchDetails, that.branchDetails)
                 .isEquals();
     }
 
@@ -47,6 +475,36 @@ public class BitbucketClientConfiguration {
         return new HashCodeBuilder(17, 37)
                 .append(baseUrl)
                 .append(credentialsId)
+                .append(pooledConnections)
+                .append(maxConnections)
+                .append(maxConnectionsPerRoute)
+                .append(connectionIdleTimeout)
+                .append(responseCacheSize)
+                .append(compression)
+                .append(requestsPerSecond)
+                .append(rateLimitRetries)
+                .append(retries)
+                .append(circuitBreakerThreshold)
+                .append(circuitBreakerDelay)
+                .append(asyncThreads)
+                .append(authenticationMode)
+                .append(connectTimeout)
+                .append(readTimeout)
+                .append(branchesTimeout)
+                .append(browseTimeout)
+                .append(buildStatusTimeout)
+                .append(scanTimeout)
+                .append(maxConcurrentRequests)
+                .append(pageSize)
+                .append(repositoriesPageSize)
+                .append(branchesPageSize)
+                .append(maxPageSize)
+                .append(pageResponseTimeTarget)
+                .append(prefetchPages)
+                .append(parallelPages)
+                .append(parallelProbes)
+                .append(directoryListingProbes)
+                .append(branchDetails)
                 .toHashCode();
     }
 
@@ -55,6 +513,36 @@ public class BitbucketClientConfiguration {
         return new ToStringBuilder(this)
                 .append("baseUrl", baseUrl)
                 .append("credentialsId", credentialsId)
+                .append("pooledConnections", pooledConnections)
+                .append("maxConnections", maxConnections)
+                .append("maxConnectionsPerRoute", maxConnectionsPerRoute)
+                .append("connectionIdleTimeout", connectionIdleTimeout)
+                .append("responseCacheSize", responseCacheSize)
+                .append("compression", compression)
+                .append("requestsPerSecond", requestsPerSecond)
+                .append("rateLimitRetries", rateLimitRetries)
+                .append("retries", retries)
+                .append("circuitBreakerThreshold", circuitBreakerThreshold)
+                .append("circuitBreakerDelay", circuitBreakerDelay)
+                .append("asyncThreads", asyncThreads)
+                .append("authenticationMode", authenticationMode)
+                .append("connectTimeout", connectTimeout)
+                .append("readTimeout", readTimeout)
+                .append("branchesTimeout", branchesTimeout)
+                .append("browseTimeout", browseTimeout)
+                .append("buildStatusTimeout", buildStatusTimeout)
+                .append("scanTimeout", scanTimeout)
+                .append("maxConcurrentRequests", maxConcurrentRequests)
+                .append("pageSize", pageSize)
+                .append("repositoriesPageSize", repositoriesPageSize)
+                .append("branchesPageSize", branchesPageSize)
+                .append("maxPageSize", maxPageSize)
+                .append("pageResponseTimeTarget", pageResponseTimeTarget)
+                .append("prefetchPages", prefetchPages)
+                .append("parallelPages", parallelPages)
+                .append("parallelProbes", parallelProbes)
+                .append("directoryListingProbes", directoryListingProbes)
+                .append("branchDetails", branchDetails)
                 .toString();
     }
 }
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the requests that were sent to one Bitbucket Server.
+ *
+ * @author Robin Müller
+ */
+public class BitbucketClientStatistics {
+
+    private final AtomicLong responseCacheHits = new AtomicLong();
+    private final AtomicLong responseCacheMisses = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesDecoded = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> coalescedRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> queuedRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> queueWaitNanos = new ConcurrentHashMap<>();
+
+    /**
+     * @return the number of GET requests answered by Bitbucket Server with 304 Not Modified
+     */
+    public long getResponseCacheHits() {
+        return responseCacheHits.get();
+    }
+
+    /**
+     * @return the number of cacheable GET requests for which Bitbucket Server returned the full response
+     */
+    public long getResponseCacheMisses() {
+        return responseCacheMisses.get();
+    }
+
+    /**
+     * @return the number of response body bytes received from the network
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the number of response body bytes after content decoding, the difference to
+     * {@link #getBytesReceived()} is the saving of compressed transfer
+     */
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    /**
+     * @return the number of requests per endpoint that were not sent because an identical request was in flight
+     */
+    public Map<String, Long> getCoalescedRequests() {
+        return snapshot(coalescedRequests);
+    }
+
+    /**
+     * @return the number of requests per {@link RequestPriority} that had to wait for a free slot of the server
+     */
+    public Map<String, Long> getQueuedRequests() {
+        return snapshot(queuedRequests);
+    }
+
+    /**
+     * @return the total time in milliseconds the queued requests per {@link RequestPriority} waited for a free slot
+     */
+    public Map<String, Long> getQueueWaitMillis() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : queueWaitNanos.entrySet()) {
+            result.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().get()));
+        }
+        return result;
+    }
+
+    void responseCacheHit() {
+        responseCacheHits.incrementAndGet();
+    }
+
+    void responseCacheMiss() {
+        responseCacheMisses.incrementAndGet();
+    }
+
+    void bytesReceived(int count) {
+        bytesReceived.addAndGet(count);
+    }
+
+    void bytesDecoded(int count) {
+        bytesDecoded.addAndGet(count);
+    }
+
+    void requestCoalesced(String endpoint) {
+        counter(coalescedRequests, endpoint).incrementAndGet();
+    }
+
+    void requestQueued(RequestPriority priority, long waitNanos) {
+        counter(queuedRequests, priority.name()).incrementAndGet();
+        counter(queueWaitNanos, priority.name()).addAndGet(waitNanos);
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong count = counters.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counters.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counters) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("responseCacheHits", responseCacheHits)
+                .append("responseCacheMisses", responseCacheMisses)
+                .append("bytesReceived", bytesReceived)
+                .append("bytesDecoded", bytesDecoded)
+                .append("coalescedRequests", coalescedRequests)
+                .append("queuedRequests", queuedRequests)
+                .append("queueWaitMillis", getQueueWaitMillis())
+                .toString();
+    }
+}
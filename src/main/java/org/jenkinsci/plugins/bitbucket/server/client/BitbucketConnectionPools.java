@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one bounded keep-alive connection pool per Bitbucket Server base URL.
+ * <p>
+ * Every pool uses its own {@link SSLContext}, so TLS sessions negotiated by one connection are resumed by the
+ * following connections to the same server instead of doing a full handshake again. The idle connections of a pool
+ * are closed by an evictor thread until the pools are {@link #shutdown() shut down}.
+ *
+ * @author Robin Müller
+ */
+final class BitbucketConnectionPools {
+
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+    HttpClientConnectionManager getConnectionManager(BitbucketClientConfiguration clientConfiguration) {
+        String baseUrl = clientConfiguration.getBaseUrl();
+        Pool pool = pools.get(baseUrl);
+        if (pool == null) {
+            Pool newPool = new Pool(createConnectionManager(clientConfiguration), clientConfiguration);
+            pool = pools.putIfAbsent(baseUrl, newPool);
+            if (pool == null) {
+                pool = newPool;
+                pool.evictor.start();
+            } else {
+                newPool.connectionManager.shutdown();
+            }
+        }
+        return pool.connectionManager;
+    }
+
+    /**
+     * Stops the evictor threads and closes the connections of all pools. Clients that still use one of the pools fail
+     * their next request, new clients get a new pool.
+     */
+    void shutdown() {
+        for (String baseUrl : pools.keySet()) {
+            Pool pool = pools.remove(baseUrl);
+            if (pool != null) {
+                pool.evictor.shutdown();
+                pool.connectionManager.shutdown();
+            }
+        }
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager(BitbucketClientConfiguration clientConfiguration) {
+        SSLContext sslContext = SSLContexts.createSystemDefault();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(clientConfiguration.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(clientConfiguration.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        return connectionManager;
+    }
+
+    private static class Pool {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final IdleConnectionEvictor evictor;
+
+        private Pool(PoolingHttpClientConnectionManager connectionManager, BitbucketClientConfiguration clientConfiguration) {
+            this.connectionManager = connectionManager;
+            this.evictor = new IdleConnectionEvictor(connectionManager,
+                                                     new NamingThreadFactory(new DaemonThreadFactory(), "BitbucketConnectionEvictor " + clientConfiguration.getBaseUrl()),
+                                                     clientConfiguration.getConnectionIdleTimeout(), TimeUnit.SECONDS,
+                                                     clientConfiguration.getConnectionIdleTimeout(), TimeUnit.SECONDS);
+        }
+    }
+}
@@ -7,47 +7,110 @@ import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
 import org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest;
 import org.jenkinsci.plugins.bitbucket.server.api.model.Repository;
 
+import java.util.concurrent.ExecutorService;
+
 /**
+ * Iterates over the paged resources of Bitbucket Server. The repositories and branches of a client created by
+ * {@link BitbucketServerClientService} are decoded while they are iterated instead of reading a whole page at once.
+ * <p>
+ * The page sizes of a {@link BitbucketClientConfiguration} are used for repositories and branches, without one the
+ * server's default page size applies. If the paging client was given an executor, the next pages are fetched on it
+ * while the current one is processed.
+ *
  * @author Robin Müller
  */
 public class BitbucketPagingClient {
 
     private final BitbucketServerAPI client;
+    private final BitbucketServerClient streamingClient;
+    private final PageSize repositoriesPageSize;
+    private final PageSize branchesPageSize;
+    private final PageSize hooksPageSize;
+    private final ExecutorService prefetchExecutor;
+    private final int parallelPages;
 
     public BitbucketPagingClient(BitbucketServerAPI client) {
         this.client = client;
+        this.streamingClient = client instanceof BitbucketServerClient ? (BitbucketServerClient) client : null;
+        repositoriesPageSize = PageSize.SERVER_DEFAULT;
+        branchesPageSize = PageSize.SERVER_DEFAULT;
+        hooksPageSize = PageSize.SERVER_DEFAULT;
+        prefetchExecutor = null;
+        parallelPages = 1;
+    }
+
+    public BitbucketPagingClient(BitbucketServerAPI client, BitbucketClientConfiguration clientConfiguration) {
+        this(client, clientConfiguration, null);
     }
 
-    public Iterable<Repository> getRepositories(final String project) {
-        return new APIPageIterable<Repository>() {
+    BitbucketPagingClient(BitbucketServerAPI client, BitbucketClientConfiguration clientConfiguration, ExecutorService prefetchExecutor) {
+        this.client = client;
+        this.streamingClient = client instanceof BitbucketServerClient ? (BitbucketServerClient) client : null;
+        repositoriesPageSize = PageSize.of(clientConfiguration.getRepositoriesPageSize(), clientConfiguration);
+        branchesPageSize = PageSize.of(clientConfiguration.getBranchesPageSize(), clientConfiguration);
+        hooksPageSize = PageSize.of(clientConfiguration.getPageSize(), clientConfiguration);
+        this.prefetchExecutor = prefetchExecutor;
+        parallelPages = clientConfiguration.getParallelPages();
+    }
+
+    public PageIterable<Repository> getRepositories(final String project) {
+        return new APIPageIterable<Repository>(repositoriesPageSize, prefetchExecutor, parallelPages) {
             @Override
             protected Page<Repository> getNextPage(PageRequest pageRequest) {
                 Integer start = pageRequest == null ? null : pageRequest.getStart();
                 Integer limit = pageRequest == null ? null : pageRequest.getLimit();
+                if (streamingClient != null) {
+                    return streamingClient.streamRepositories(project, start, limit);
+                }
                 return client.getRepositories(project, start, limit);
             }
+
+            @Override
+            protected Object keyOf(Repository repository) {
+                return repository.getSlug();
+            }
         };
     }
 
-    public Iterable<Branch> getBranches(final String project, final String repository) {
-        return new APIPageIterable<Branch>() {
+    public PageIterable<Branch> getBranches(String project, String repository) {
+        return getBranches(project, repository, null);
+    }
+
+    /**
+     * @param filterText the text all branches contain, {@code null} for all branches
+     */
+    public PageIterable<Branch> getBranches(final String project, final String repository, final String filterText) {
+        return new APIPageIterable<Branch>(branchesPageSize, prefetchExecutor, parallelPages) {
             @Override
             protected Page<Branch> getNextPage(PageRequest pageRequest) {
                 Integer start = pageRequest == null ? null : pageRequest.getStart();
                 Integer limit = pageRequest == null ? null : pageRequest.getLimit();
-                return client.getBranches(project, repository, start, limit);
+                if (streamingClient != null) {
+                    return streamingClient.streamBranches(project, repository, filterText, start, limit);
+                }
+                return client.getBranches(project, repository, filterText, start, limit);
+            }
+
+            @Override
+            protected Object keyOf(Branch branch) {
+                return branch.getId();
             }
         };
     }
 
-    public Iterable<HookAddon> getHooks(final String project, final String repository) {
-        return new APIPageIterable<HookAddon>() {
+    public PageIterable<HookAddon> getHooks(final String project, final String repository) {
+        return new APIPageIterable<HookAddon>(hooksPageSize, prefetchExecutor, parallelPages) {
             @Override
             protected Page<HookAddon> getNextPage(PageRequest pageRequest) {
                 Integer start = pageRequest == null ? null : pageRequest.getStart();
                 Integer limit = pageRequest == null ? null : pageRequest.getLimit();
                 return client.getHooks(project, repository, start, limit);
             }
+
+            @Override
+            protected Object keyOf(HookAddon hookAddon) {
+                return hookAddon.getDetails() == null ? null : hookAddon.getDetails().getKey();
+            }
         };
     }
 }
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAsyncAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BuildStatus;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.jenkinsci.plugins.bitbucket.server.api.model.HookAddon;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs the requests of a shared {@link BitbucketServerAPI} client on the bounded executor of its server, so the
+ * calling threads never wait for the network and the number of requests in flight is limited per server.
+ *
+ * @author Robin Müller
+ */
+class BitbucketServerAsyncClient implements BitbucketServerAsyncAPI {
+
+    private final BitbucketServerAPI client;
+    private final ListeningExecutorService executor;
+
+    BitbucketServerAsyncClient(BitbucketServerAPI client, ListeningExecutorService executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<Page<Branch>> getBranches(final String project, final String repositorySlug, final String filterText, final Integer start,
+                                                      final Integer limit) {
+        return executor.submit(new Callable<Page<Branch>>() {
+            @Override
+            public Page<Branch> call() {
+                return client.getBranches(project, repositorySlug, filterText, start, limit);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Commit> getCommit(final String project, final String repositorySlug, final String commitId) {
+        return executor.submit(new Callable<Commit>() {
+            @Override
+            public Commit call() {
+                return client.getCommit(project, repositorySlug, commitId);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<BrowsePath> browse(final String project, final String repositorySlug, final String path, final String at, final boolean type) {
+        return executor.submit(new Callable<BrowsePath>() {
+            @Override
+            public BrowsePath call() {
+                return client.browse(project, repositorySlug, path, at, type);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Page<HookAddon>> getHooks(final String project, final String repositorySlug, final Integer start, final Integer limit) {
+        return executor.submit(new Callable<Page<HookAddon>>() {
+            @Override
+            public Page<HookAddon> call() {
+                return client.getHooks(project, repositorySlug, start, limit);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JsonNode> getHookSettings(final String project, final String repositorySlug, final String key) {
+        return executor.submit(new Callable<JsonNode>() {
+            @Override
+            public JsonNode call() {
+                return client.getHookSettings(project, repositorySlug, key);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<JsonNode> updateHookSettings(final String project, final String repositorySlug, final String key, final Object hookSettings) {
+        return executor.submit(new Callable<JsonNode>() {
+            @Override
+            public JsonNode call() {
+                return client.updateHookSettings(project, repositorySlug, key, hookSettings);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> updateBuildStatus(final String commitId, final BuildStatus buildStatus) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                client.updateBuildStatus(commitId, buildStatus);
+                return null;
+            }
+        });
+    }
+}
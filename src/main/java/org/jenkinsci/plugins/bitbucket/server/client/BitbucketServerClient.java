@@ -0,0 +1,387 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.glassfish.jersey.client.ClientProperties;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BuildStatus;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryListing;
+import org.jenkinsci.plugins.bitbucket.server.api.model.HookAddon;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Repository;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Typed implementation of {@link BitbucketServerAPI}. The resource paths are resolved once when the client is
+ * created, a call only fills in the path and query parameters and goes through the {@link RequestExecutor} of the
+ * server.
+ * <p>
+ * Concurrent identical GET requests are sent only once, see {@link SingleFlight}, each caller decodes the shared
+ * response on its own. Each attempt of a request takes a
+ * slot of the server's {@link Bulkhead} in the lane of the calling thread's {@link RequestPriority}, waiting for a
+ * slot counts against the deadline of the request. A response that is read as a stream keeps its slot until the
+ * stream is closed.
+ * <p>
+ * Listing branches, browsing and posting build statuses can be given their own deadline. It is checked together with
+ * the {@link RequestDeadline} of the calling thread: the read timeout of a request is shortened to the remaining time
+ * and a request that runs out of time fails with a {@link DeadlineExceededException}.
+ * <p>
+ * The requests are built the same way Jersey's {@code WebResourceFactory} builds them from the annotations of
+ * {@link BitbucketServerAPI}, so the calls throw the same exceptions as before.
+ *
+ * @author Robin Müller
+ */
+class BitbucketServerClient implements BitbucketServerAPI {
+
+    private static final GenericType<Page<Repository>> REPOSITORY_PAGE = new GenericType<Page<Repository>>() {};
+    private static final GenericType<Repository> REPOSITORY = new GenericType<>(Repository.class);
+    private static final GenericType<Page<Branch>> BRANCH_PAGE = new GenericType<Page<Branch>>() {};
+    private static final GenericType<Commit> COMMIT = new GenericType<>(Commit.class);
+    private static final GenericType<BrowsePath> BROWSE_PATH = new GenericType<>(BrowsePath.class);
+    private static final GenericType<DirectoryListing> DIRECTORY_LISTING = new GenericType<>(DirectoryListing.class);
+    private static final GenericType<Page<HookAddon>> HOOK_ADDON_PAGE = new GenericType<Page<HookAddon>>() {};
+    private static final GenericType<HookAddon> HOOK_ADDON = new GenericType<>(HookAddon.class);
+    private static final GenericType<JsonNode> JSON_NODE = new GenericType<>(JsonNode.class);
+    private static final GenericType<Void> VOID = new GenericType<>(void.class);
+    private static final GenericType<InputStream> INPUT_STREAM = new GenericType<>(InputStream.class);
+    private static final GenericType<InputStream> RAW_CONTENT = new GenericType<>(InputStream.class);
+    private static final GenericType<byte[]> BYTES = new GenericType<>(byte[].class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final RequestExecutor requestExecutor;
+    private final ServerRateLimiter rateLimiter;
+    private final Bulkhead bulkhead;
+    private final SingleFlight singleFlight;
+    private final long readTimeoutMillis;
+    private final long branchesTimeoutMillis;
+    private final long browseTimeoutMillis;
+    private final long buildStatusTimeoutMillis;
+    private final boolean branchDetails;
+    private final WebTarget repositories;
+    private final WebTarget repository;
+    private final WebTarget branches;
+    private final WebTarget commit;
+    private final WebTarget browse;
+    private final WebTarget raw;
+    private final WebTarget hooks;
+    private final WebTarget hookEnabled;
+    private final WebTarget hookSettings;
+    private final WebTarget buildStatus;
+
+    BitbucketServerClient(WebTarget target,
+                          BitbucketClientConfiguration clientConfiguration,
+                          RequestExecutor requestExecutor,
+                          ServerRateLimiter rateLimiter,
+                          Bulkhead bulkhead,
+                          SingleFlight singleFlight) {
+        this.requestExecutor = requestExecutor;
+        this.rateLimiter = rateLimiter;
+        this.bulkhead = bulkhead;
+        this.singleFlight = singleFlight;
+        readTimeoutMillis = TimeUnit.SECONDS.toMillis(clientConfiguration.getReadTimeout());
+        branchesTimeoutMillis = TimeUnit.SECONDS.toMillis(clientConfiguration.getBranchesTimeout());
+        browseTimeoutMillis = TimeUnit.SECONDS.toMillis(clientConfiguration.getBrowseTimeout());
+        buildStatusTimeoutMillis = TimeUnit.SECONDS.toMillis(clientConfiguration.getBuildStatusTimeout());
+        branchDetails = clientConfiguration.isBranchDetails();
+        WebTarget api = target.path("rest/api/1.0");
+        repositories = api.path("projects/{project}/repos");
+        repository = repositories.path("{repositorySlug}");
+        branches = repository.path("branches");
+        commit = repository.path("commits/{commitId}");
+        browse = repository.path("browse/{path}");
+        raw = repository.path("raw/{path}");
+        hooks = repository.path("settings/hooks");
+        hookEnabled = hooks.path("{key}/enabled");
+        hookSettings = hooks.path("{key}/settings");
+        buildStatus = target.path("rest/build-status/1.0/commits/{commitId}");
+    }
+
+    @Override
+    public Page<Repository> getRepositories(String project, Integer start, Integer limit) {
+        WebTarget target = repositories.resolveTemplate("project", project);
+        return get("getRepositories", page(target, start, limit), REPOSITORY_PAGE, 0);
+    }
+
+    @Override
+    public Repository getRepository(String project, String repositorySlug) {
+        return get("getRepository", resolve(repository, project, repositorySlug), REPOSITORY, 0);
+    }
+
+    @Override
+    public Page<Branch> getBranches(String project, String repositorySlug, String filterText, Integer start, Integer limit) {
+        return get("getBranches", page(branches(project, repositorySlug, filterText), start, limit), BRANCH_PAGE, branchesTimeoutMillis);
+    }
+
+    @Override
+    public Commit getCommit(String project, String repositorySlug, String commitId) {
+        return get("getCommit", resolve(commit, project, repositorySlug).resolveTemplate("commitId", commitId), COMMIT, 0);
+    }
+
+    @Override
+    public BrowsePath browse(String project, String repositorySlug, String path, String at, boolean type) {
+        WebTarget target = resolvePath(browse, project, repositorySlug, path, at);
+        return get("browse", target.queryParam("type", type), BROWSE_PATH, browseTimeoutMillis);
+    }
+
+    @Override
+    public DirectoryListing browseDirectory(String project, String repositorySlug, String path, String at, Integer start, Integer limit) {
+        WebTarget target = resolvePath(browse, project, repositorySlug, path, at);
+        return get("browseDirectory", page(target, start, limit), DIRECTORY_LISTING, browseTimeoutMillis);
+    }
+
+    @Override
+    public InputStream getRawContent(String project, String repositorySlug, String path, String at) {
+        // the content is served as it is stored, so no media type is asked for, and a stream is not shared
+        return execute("getRawContent", true, HttpMethod.GET, resolvePath(raw, project, repositorySlug, path, at), null, null, RAW_CONTENT, browseTimeoutMillis);
+    }
+
+    @Override
+    public Page<HookAddon> getHooks(String project, String repositorySlug, Integer start, Integer limit) {
+        return get("getHooks", page(resolve(hooks, project, repositorySlug), start, limit), HOOK_ADDON_PAGE, 0);
+    }
+
+    @Override
+    public HookAddon enableHook(String project, String repositorySlug, String key) {
+        WebTarget target = resolve(hookEnabled, project, repositorySlug).resolveTemplate("key", key);
+        return execute("enableHook", false, HttpMethod.PUT, target, MediaType.APPLICATION_JSON_TYPE, null, HOOK_ADDON, 0);
+    }
+
+    @Override
+    public HookAddon disableHook(String project, String repositorySlug, String key) {
+        WebTarget target = resolve(hookEnabled, project, repositorySlug).resolveTemplate("key", key);
+        return execute("disableHook", false, HttpMethod.DELETE, target, MediaType.APPLICATION_JSON_TYPE, null, HOOK_ADDON, 0);
+    }
+
+    @Override
+    public JsonNode getHookSettings(String project, String repositorySlug, String key) {
+        return get("getHookSettings", resolve(hookSettings, project, repositorySlug).resolveTemplate("key", key), JSON_NODE, 0);
+    }
+
+    @Override
+    public JsonNode updateHookSettings(String project, String repositorySlug, String key, Object hookSettings) {
+        WebTarget target = resolve(this.hookSettings, project, repositorySlug).resolveTemplate("key", key);
+        return execute("updateHookSettings", false, HttpMethod.PUT, target, MediaType.APPLICATION_JSON_TYPE,
+                       Entity.entity(hookSettings, MediaType.APPLICATION_JSON_TYPE), JSON_NODE, 0);
+    }
+
+    @Override
+    public void updateBuildStatus(String commitId, BuildStatus buildStatus) {
+        execute("updateBuildStatus", false, HttpMethod.POST, this.buildStatus.resolveTemplate("commitId", commitId), null,
+                Entity.entity(buildStatus, MediaType.APPLICATION_JSON_TYPE), VOID, buildStatusTimeoutMillis);
+    }
+
+    StreamingPage<Repository> streamRepositories(String project, Integer start, Integer limit) {
+        WebTarget target = repositories.resolveTemplate("project", project);
+        return new StreamingPage<>(stream("getRepositories", page(target, start, limit), 0), Repository.class);
+    }
+
+    StreamingPage<Branch> streamBranches(String project, String repositorySlug, String filterText, Integer start, Integer limit) {
+        WebTarget target = page(branches(project, repositorySlug, filterText), start, limit);
+        return new StreamingPage<>(stream("getBranches", target, branchesTimeoutMillis), Branch.class);
+    }
+
+    private WebTarget resolve(WebTarget target, String project, String repositorySlug) {
+        return target.resolveTemplate("project", project).resolveTemplate("repositorySlug", repositorySlug);
+    }
+
+    private WebTarget branches(String project, String repositorySlug, String filterText) {
+        WebTarget target = resolve(branches, project, repositorySlug);
+        if (branchDetails) {
+            target = target.queryParam("details", true);
+        }
+        return filterText != null ? target.queryParam("filterText", filterText) : target;
+    }
+
+    /**
+     * Unlike the other templates, the slashes of a path separate its directories and must not be encoded.
+     */
+    private WebTarget resolvePath(WebTarget target, String project, String repositorySlug, String path, String at) {
+        WebTarget resolved = resolve(target, project, repositorySlug).resolveTemplate("path", path, false);
+        return at != null ? resolved.queryParam("at", at) : resolved;
+    }
+
+    private WebTarget page(WebTarget target, Integer start, Integer limit) {
+        if (start != null) {
+            target = target.queryParam("start", start);
+        }
+        if (limit != null) {
+            target = target.queryParam("limit", limit);
+        }
+        return target;
+    }
+
+    /**
+     * The callers of a shared request share the bytes of the response, each of them decodes its own objects because
+     * the model classes are mutable.
+     */
+    private <T> T get(final String endpoint, final WebTarget target, GenericType<T> responseType, final long timeoutMillis) {
+        byte[] response;
+        try {
+            response = singleFlight.execute(endpoint, target.getUri().toString(), deadlineOf(endpoint, timeoutMillis), new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return execute(endpoint, true, HttpMethod.GET, target, MediaType.APPLICATION_JSON_TYPE, null, BYTES, timeoutMillis);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessingException(e);
+        }
+        try {
+            return OBJECT_MAPPER.readValue(response, OBJECT_MAPPER.getTypeFactory().constructType(responseType.getType()));
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    private InputStream stream(String endpoint, WebTarget target, long timeoutMillis) {
+        // a response stream can only be read once, so it is not shared
+        return execute(endpoint, true, HttpMethod.GET, target, MediaType.APPLICATION_JSON_TYPE, null, INPUT_STREAM, timeoutMillis);
+    }
+
+    private <T> T execute(final String endpoint,
+                          boolean idempotent,
+                          final String method,
+                          final WebTarget target,
+                          MediaType accept,
+                          final Entity<?> entity,
+                          final GenericType<T> responseType,
+                          long timeoutMillis) {
+        final Invocation.Builder request = accept == null ? target.request() : target.request(accept);
+        if (responseType == RAW_CONTENT) {
+            // the content at a commit never changes and is cached by the file system, it would only evict the listings
+            request.property(ResponseCacheFilter.BYPASS_PROPERTY, true);
+        }
+        final RequestDeadline deadline = deadlineOf(endpoint, timeoutMillis);
+        final RequestPriority priority = RequestPriority.current();
+        ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(BitbucketServerClient.class.getClassLoader());
+            return requestExecutor.execute(idempotent, new Callable<T>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public T call() {
+                    // the permit is taken first, a request waiting for it must not hold a slot
+                    acquirePermit(deadline, endpoint, method, target);
+                    acquireSlot(priority, deadline, endpoint, method, target);
+                    boolean streaming = false;
+                    try {
+                        if (deadline != null && deadline.isLimited()) {
+                            limitReadTimeout(request, deadline, endpoint, method, target);
+                        }
+                        T response = entity == null ? request.method(method, responseType) : request.method(method, entity, responseType);
+                        if (response instanceof InputStream) {
+                            // the body is still being received, the slot is kept until the stream is closed
+                            streaming = true;
+                            return (T) new SlotReleasingInputStream((InputStream) response);
+                        }
+                        return response;
+                    } catch (ProcessingException e) {
+                        if (deadline != null && deadline.isExpired() && !(e instanceof DeadlineExceededException)) {
+                            throw new DeadlineExceededException(deadline, describe(endpoint, method, target), e);
+                        }
+                        throw e;
+                    } finally {
+                        if (!streaming) {
+                            bulkhead.release();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProcessingException(e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(currentClassLoader);
+        }
+    }
+
+    /**
+     * @return the earlier of the current deadline and the timeout of the endpoint, {@code null} if neither is set
+     */
+    private static RequestDeadline deadlineOf(String endpoint, long timeoutMillis) {
+        return RequestDeadline.earliest(RequestDeadline.current(),
+                                        timeoutMillis > 0 ? RequestDeadline.of(endpoint + " request", timeoutMillis, TimeUnit.MILLISECONDS) : null);
+    }
+
+    private void acquirePermit(RequestDeadline deadline, String endpoint, String method, WebTarget target) {
+        long timeoutMillis = deadline != null ? Math.max(deadline.remainingMillis(), 0) : Long.MAX_VALUE;
+        try {
+            if (!rateLimiter.tryAcquire(timeoutMillis)) {
+                throw new DeadlineExceededException(deadline, describe(endpoint, method, target), null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        }
+    }
+
+    private void acquireSlot(RequestPriority priority, RequestDeadline deadline, String endpoint, String method, WebTarget target) {
+        long timeoutMillis = deadline != null ? Math.max(deadline.remainingMillis(), 0) : Long.MAX_VALUE;
+        try {
+            if (!bulkhead.acquire(priority, timeoutMillis)) {
+                throw new DeadlineExceededException(deadline, describe(endpoint, method, target), null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        }
+    }
+
+    private void limitReadTimeout(Invocation.Builder request, RequestDeadline deadline, String endpoint, String method, WebTarget target) {
+        long remaining = deadline.remainingMillis();
+        if (remaining <= 0) {
+            throw new DeadlineExceededException(deadline, describe(endpoint, method, target), null);
+        }
+        if (readTimeoutMillis == 0 || remaining < readTimeoutMillis) {
+            request.property(ClientProperties.READ_TIMEOUT, (int) Math.min(remaining, Integer.MAX_VALUE));
+        }
+    }
+
+    private String describe(String endpoint, String method, WebTarget target) {
+        return endpoint + " (" + method + " " + target.getUri().getPath() + ")";
+    }
+
+    /**
+     * Releases the slot of the bulkhead the response was received with when it is closed.
+     */
+    private class SlotReleasingInputStream extends FilterInputStream {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private SlotReleasingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    bulkhead.release();
+                }
+            }
+        }
+    }
+}
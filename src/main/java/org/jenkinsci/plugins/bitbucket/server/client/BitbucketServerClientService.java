@@ -2,8 +2,17 @@ package org.jenkinsci.plugins.bitbucket.server.client;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.Queue;
 import hudson.model.queue.Tasks;
 import hudson.security.ACL;
@@ -11,16 +20,23 @@ import jenkins.scm.api.SCMSourceOwner;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.glassfish.jersey.client.proxy.WebResourceFactory;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.message.DeflateEncoder;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAsyncAPI;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration.AuthenticationMode;
 
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.allOf;
@@ -29,6 +45,8 @@ import static com.cloudbees.plugins.credentials.CredentialsMatchers.firstOrNull;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.instanceOf;
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.withId;
 import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
+import static org.glassfish.jersey.client.ClientProperties.CONNECT_TIMEOUT;
+import static org.glassfish.jersey.client.ClientProperties.READ_TIMEOUT;
 import static org.glassfish.jersey.client.ClientProperties.SUPPRESS_HTTP_COMPLIANCE_VALIDATION;
 
 
@@ -37,14 +55,39 @@ import static org.glassfish.jersey.client.ClientProperties.SUPPRESS_HTTP_COMPLIA
  */
 public final class BitbucketServerClientService {
 
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
     private static transient BitbucketServerClientService instance;
-    private final Cache<CacheKey, BitbucketServerAPI> clientCache;
+    private final Cache<ClientKey, BitbucketServerAPI> clientCache;
+    private final LoadingCache<SCMSourceOwner, ConcurrentMap<BitbucketClientConfiguration, Optional<StandardUsernamePasswordCredentials>>> credentialsCache;
+    private final BitbucketConnectionPools connectionPools = new BitbucketConnectionPools();
+    private final Cache<String, ServerResources> servers;
 
     private BitbucketServerClientService() {
-        clientCache = CacheBuilder.<CacheKey, BitbucketServerAPI>newBuilder()
+        clientCache = CacheBuilder.<ClientKey, BitbucketServerAPI>newBuilder()
                 .maximumSize(50)
                 .expireAfterAccess(10, TimeUnit.MINUTES)
                 .build();
+        // the owners are only weakly referenced so that deleted jobs and folders can be garbage collected
+        credentialsCache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .build(new CacheLoader<SCMSourceOwner, ConcurrentMap<BitbucketClientConfiguration, Optional<StandardUsernamePasswordCredentials>>>() {
+                    @Override
+                    public ConcurrentMap<BitbucketClientConfiguration, Optional<StandardUsernamePasswordCredentials>> load(SCMSourceOwner key) {
+                        return new ConcurrentHashMap<>();
+                    }
+                });
+        // every use of a client touches its server, so a server only expires once none of its clients is used
+        servers = CacheBuilder.newBuilder()
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .removalListener(new RemovalListener<String, ServerResources>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, ServerResources> notification) {
+                        notification.getValue().shutdown();
+                    }
+                })
+                .build();
     }
 
     public static BitbucketServerClientService instance() {
@@ -54,20 +97,58 @@ public final class BitbucketServerClientService {
         return instance;
     }
 
+    /**
+     * Stops the threads and closes the pooled connections of all servers when Jenkins shuts down, the clients that
+     * use them are forgotten.
+     */
+    @Terminator
+    public static void shutdown() {
+        if (instance != null) {
+            instance.clientCache.invalidateAll();
+            instance.servers.invalidateAll();
+            instance.connectionPools.shutdown();
+        }
+    }
+
+    /**
+     * Returns a client for the given Bitbucket Server. The client is shared by all owners that resolve the same
+     * scan credentials, only the credentials lookup is done per owner.
+     */
     public BitbucketServerAPI getClient(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
-        CacheKey key = new CacheKey(clientConfiguration, context);
+        ClientKey key = new ClientKey(clientConfiguration, getCredentials(clientConfiguration, context));
+        ServerResources server = getServerResources(clientConfiguration);
         BitbucketServerAPI client = clientCache.getIfPresent(key);
         if (client == null) {
             ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
             try {
                 Thread.currentThread().setContextClassLoader(BitbucketServerClientService.class.getClassLoader());
-                WebTarget target = ClientBuilder.newBuilder()
-                        .register(new BasicAuthFilter(findCredentials(clientConfiguration, context)))
+                BitbucketClientStatistics clientStatistics = server.getStatistics();
+                ClientBuilder clientBuilder = newClientBuilder(clientConfiguration)
+                        .register(newAuthenticationFilter(clientConfiguration, key.credentials))
                         .register(new LoggingFilter())
+                        .register(new TransferStatisticsFilter(clientStatistics), TransferStatisticsFilter.contracts());
+                if (clientConfiguration.getResponseCacheSize() > 0) {
+                    clientBuilder.register(new ResponseCacheFilter(clientConfiguration.getResponseCacheSize() * 1024L, clientStatistics));
+                }
+                if (clientConfiguration.isCompression()) {
+                    clientBuilder.register(EncodingFilter.class)
+                            .register(GZipEncoder.class)
+                            .register(DeflateEncoder.class);
+                }
+                WebTarget target = clientBuilder
                         .build()
                         .property(SUPPRESS_HTTP_COMPLIANCE_VALIDATION, true)
+                        .property(CONNECT_TIMEOUT, (int) TimeUnit.SECONDS.toMillis(clientConfiguration.getConnectTimeout()))
+                        .property(READ_TIMEOUT, (int) TimeUnit.SECONDS.toMillis(clientConfiguration.getReadTimeout()))
                         .target(clientConfiguration.getBaseUrl());
-                client = createClientProxy(WebResourceFactory.newResource(BitbucketServerAPI.class, target));
+                RequestExecutor requestExecutor = new RequestExecutor(server.getRateLimiter(),
+                                                                      server.getCircuitBreaker(),
+                                                                      clientConfiguration.getRateLimitRetries(),
+                                                                      clientConfiguration.getRetries(),
+                                                                      RETRY_BACKOFF_MILLIS,
+                                                                      clientConfiguration.getAuthenticationMode() == AuthenticationMode.SESSION);
+                client = new BitbucketServerClient(target, clientConfiguration, requestExecutor, server.getRateLimiter(), server.getBulkhead(),
+                                                  new SingleFlight(clientStatistics));
                 clientCache.put(key, client);
             } finally {
                 Thread.currentThread().setContextClassLoader(currentClassLoader);
@@ -76,38 +157,184 @@ public final class BitbucketServerClientService {
         return client;
     }
 
+    /**
+     * Returns a non-blocking client for the given Bitbucket Server. It uses the same shared client as
+     * {@link #getClient(BitbucketClientConfiguration, SCMSourceOwner)} and runs its requests on a fixed number of
+     * threads per server.
+     */
+    public BitbucketServerAsyncAPI getAsyncClient(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
+        return new BitbucketServerAsyncClient(getClient(clientConfiguration, context),
+                                              getServerResources(clientConfiguration).getAsyncExecutor());
+    }
+
+    /**
+     * Returns a paging client for the given Bitbucket Server. If pages are prefetched, they are requested on the same
+     * threads as the requests of {@link #getAsyncClient(BitbucketClientConfiguration, SCMSourceOwner)}.
+     */
     public BitbucketPagingClient getPagingClient(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
-        return new BitbucketPagingClient(getClient(clientConfiguration, context));
+        return new BitbucketPagingClient(getClient(clientConfiguration, context),
+                                         clientConfiguration,
+                                         clientConfiguration.isPrefetchPages() || clientConfiguration.getParallelPages() > 1 ? getServerResources(clientConfiguration).getAsyncExecutor() : null);
+    }
+
+    /**
+     * Runs a task on the probe threads of the given Bitbucket Server. The caller bounds the number of its tasks that
+     * run at the same time, the requests of all tasks are limited by the server. The requests of the task keep the priority and the deadline of the calling thread.
+     */
+    public <V> Future<V> submitProbe(BitbucketClientConfiguration clientConfiguration, final Callable<V> task) {
+        final RequestPriority priority = RequestPriority.current();
+        final RequestDeadline deadline = RequestDeadline.current();
+        return getServerResources(clientConfiguration).getProbeExecutor().submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                try (RequestPriority.Scope scope = RequestPriority.enter(priority);
+                     RequestDeadline boundDeadline = RequestDeadline.bind(deadline)) {
+                    return task.call();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the request statistics of all clients of the given Bitbucket Server
+     */
+    public BitbucketClientStatistics getStatistics(BitbucketClientConfiguration clientConfiguration) {
+        return getServerResources(clientConfiguration).getStatistics();
+    }
+
+    /**
+     * @return the current permits per second of the given Bitbucket Server, {@code 0} if the requests are not limited
+     */
+    public double getRequestsPerSecond(BitbucketClientConfiguration clientConfiguration) {
+        return getServerResources(clientConfiguration).getRateLimiter().getRate();
+    }
+
+    /**
+     * Changes the permits per second of the given Bitbucket Server for all its clients.
+     *
+     * @param requestsPerSecond the new rate, {@code 0} disables the limit
+     */
+    public void setRequestsPerSecond(BitbucketClientConfiguration clientConfiguration, double requestsPerSecond) {
+        getServerResources(clientConfiguration).getRateLimiter().setRate(requestsPerSecond);
+    }
+
+    /**
+     * @return the number of requests of the given priority that wait for a free slot of the given Bitbucket Server
+     */
+    public int getQueueDepth(BitbucketClientConfiguration clientConfiguration, RequestPriority priority) {
+        return getServerResources(clientConfiguration).getBulkhead().getQueueDepth(priority);
+    }
+
+    /**
+     * @return the number of requests that are in flight to the given Bitbucket Server
+     */
+    public int getInFlightRequests(BitbucketClientConfiguration clientConfiguration) {
+        return getServerResources(clientConfiguration).getBulkhead().getInFlightRequests();
+    }
+
+    /**
+     * Forgets the credentials that were looked up for the owners, the next client request uses the current ones.
+     */
+    public void invalidateCredentials() {
+        credentialsCache.invalidateAll();
+    }
+
+    /**
+     * Forgets the credentials that were looked up for the given folder and the owners inside it, only they can see the
+     * credentials of the folder.
+     */
+    public void invalidateCredentials(ItemGroup<?> folder) {
+        for (SCMSourceOwner owner : credentialsCache.asMap().keySet()) {
+            if (isWithin(owner, folder)) {
+                credentialsCache.invalidate(owner);
+            }
+        }
+    }
+
+    boolean hasCredentials(SCMSourceOwner context) {
+        return credentialsCache.asMap().containsKey(context);
     }
 
     void put(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context, BitbucketServerAPI client) {
-        clientCache.put(new CacheKey(clientConfiguration, context), client);
+        clientCache.put(new ClientKey(clientConfiguration, getCredentials(clientConfiguration, context)), client);
     }
 
-    private BitbucketServerAPI createClientProxy(BitbucketServerAPI client) {
-        return (BitbucketServerAPI) Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-                                                           new Class[]{BitbucketServerAPI.class},
-                                                           new ClientProxyInvocationHandler(client));
+    private ClientBuilder newClientBuilder(BitbucketClientConfiguration clientConfiguration) {
+        if (clientConfiguration.isPooledConnections()) {
+            ClientConfig config = new ClientConfig()
+                    .connectorProvider(new ApacheConnectorProvider())
+                    .property(ApacheClientProperties.CONNECTION_MANAGER, connectionPools.getConnectionManager(clientConfiguration))
+                    .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                    // like the default connector, the authentication filters take care of the session cookie
+                    .property(ApacheClientProperties.DISABLE_COOKIES, true);
+            return ClientBuilder.newBuilder().withConfig(config);
+        }
+        return ClientBuilder.newBuilder();
+    }
+
+    private Object newAuthenticationFilter(BitbucketClientConfiguration clientConfiguration, StandardUsernamePasswordCredentials credentials) {
+        switch (clientConfiguration.getAuthenticationMode()) {
+            case SESSION:
+                return new SessionCookieFilter(new BasicAuthFilter(credentials));
+            case TOKEN:
+                return new BearerTokenFilter(credentials);
+            default:
+                return new BasicAuthFilter(credentials);
+        }
+    }
+
+    private ServerResources getServerResources(final BitbucketClientConfiguration clientConfiguration) {
+        try {
+            return servers.get(StringUtils.defaultString(clientConfiguration.getBaseUrl()), new Callable<ServerResources>() {
+                @Override
+                public ServerResources call() {
+                    return new ServerResources(clientConfiguration);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private StandardUsernamePasswordCredentials getCredentials(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
+        if (StringUtils.isBlank(clientConfiguration.getCredentialsId()) || context == null) {
+            return null;
+        }
+        ConcurrentMap<BitbucketClientConfiguration, Optional<StandardUsernamePasswordCredentials>> contextCredentials = credentialsCache.getUnchecked(context);
+        Optional<StandardUsernamePasswordCredentials> credentials = contextCredentials.get(clientConfiguration);
+        if (credentials == null) {
+            credentials = Optional.fromNullable(findCredentials(clientConfiguration, context));
+            contextCredentials.put(clientConfiguration, credentials);
+        }
+        return credentials.orNull();
     }
 
     private StandardUsernamePasswordCredentials findCredentials(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
-        if (StringUtils.isNotBlank(clientConfiguration.getCredentialsId()) && context != null) {
-            return firstOrNull(lookupCredentials(StandardUsernamePasswordCredentials.class,
-                                                 context,
-                                                 context instanceof Queue.Task ? Tasks.getDefaultAuthenticationOf((Queue.Task) context) : ACL.SYSTEM,
-                                                 URIRequirementBuilder.fromUri(clientConfiguration.getBaseUrl()).build()),
-                               allOf(withId(clientConfiguration.getCredentialsId()), anyOf(instanceOf(StandardUsernamePasswordCredentials.class))));
+        return firstOrNull(lookupCredentials(StandardUsernamePasswordCredentials.class,
+                                             context,
+                                             context instanceof Queue.Task ? Tasks.getDefaultAuthenticationOf((Queue.Task) context) : ACL.SYSTEM,
+                                             URIRequirementBuilder.fromUri(clientConfiguration.getBaseUrl()).build()),
+                           allOf(withId(clientConfiguration.getCredentialsId()), anyOf(instanceOf(StandardUsernamePasswordCredentials.class))));
+    }
+
+    private static boolean isWithin(Item item, ItemGroup<?> folder) {
+        Object current = item;
+        while (current instanceof Item) {
+            if (current == folder) {
+                return true;
+            }
+            current = ((Item) current).getParent();
         }
-        return null;
+        return current == folder;
     }
 
-    private static class CacheKey {
+    private static class ClientKey {
         private final BitbucketClientConfiguration clientConfiguration;
-        private final SCMSourceOwner context;
+        private final StandardUsernamePasswordCredentials credentials;
 
-        private CacheKey(BitbucketClientConfiguration clientConfiguration, SCMSourceOwner context) {
+        private ClientKey(BitbucketClientConfiguration clientConfiguration, StandardUsernamePasswordCredentials credentials) {
             this.clientConfiguration = clientConfiguration;
-            this.context = context;
+            this.credentials = credentials;
         }
 
         @Override
@@ -118,10 +345,11 @@ public final class BitbucketServerClientService {
             if (o == null || getClass() != o.getClass()) {
                 return false;
             }
-            CacheKey cacheKey = (CacheKey) o;
-            return new EqualsBuilder()
-                    .append(clientConfiguration, cacheKey.clientConfiguration)
-                    .append(context, cacheKey.context)
+            ClientKey clientKey = (ClientKey) o;
+            // credentials are compared by identity, two credentials with the same id may live in different folders
+            return credentials == clientKey.credentials
+                   && new EqualsBuilder()
+                    .append(clientConfiguration, clientKey.clientConfiguration)
                     .isEquals();
         }
 
@@ -129,34 +357,8 @@ public final class BitbucketServerClientService {
         public int hashCode() {
             return new HashCodeBuilder(17, 37)
                     .append(clientConfiguration)
-                    .append(context)
+                    .append(System.identityHashCode(credentials))
                     .toHashCode();
         }
     }
-
-    private static class ClientProxyInvocationHandler implements InvocationHandler {
-
-        private final BitbucketServerAPI client;
-
-        ClientProxyInvocationHandler(BitbucketServerAPI client) {
-            this.client = client;
-        }
-
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
-            try {
-                Thread.currentThread().setContextClassLoader(BitbucketServerClientService.class.getClassLoader());
-                return method.invoke(client, args);
-            } catch (Exception e) {
-                Throwable cause = e.getCause();
-                if (cause instanceof WebApplicationException || cause instanceof ProcessingException) {
-                    throw cause;
-                }
-                throw e;
-            } finally {
-                Thread.currentThread().setContextClassLoader(currentClassLoader);
-            }
-        }
-    }
 }
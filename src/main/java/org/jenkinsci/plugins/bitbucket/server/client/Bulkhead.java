@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests that are in flight to one Bitbucket Server at the same time.
+ * <p>
+ * Requests that find all slots taken wait in the lane of their {@link RequestPriority}. A free slot goes to an
+ * {@link RequestPriority#INTERACTIVE interactive} request first, {@link RequestPriority#BACKGROUND background}
+ * requests only get one while no interactive request waits. A full re-index therefore cannot hold back the build
+ * statuses and webhook triggered scans for longer than one request takes.
+ *
+ * @author Robin Müller
+ */
+class Bulkhead {
+
+    private final int maxConcurrentRequests;
+    private final BitbucketClientStatistics statistics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] available = new Condition[RequestPriority.values().length];
+    private final int[] waiting = new int[RequestPriority.values().length];
+    private int inFlight;
+
+    /**
+     * @param maxConcurrentRequests the number of requests that may be in flight, {@code 0} for no limit
+     */
+    Bulkhead(int maxConcurrentRequests, BitbucketClientStatistics statistics) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.statistics = statistics;
+        for (int i = 0; i < available.length; i++) {
+            available[i] = lock.newCondition();
+        }
+    }
+
+    /**
+     * Takes a slot, waiting for one if necessary. Every successful call has to be followed by {@link #release()}.
+     *
+     * @param timeoutMillis the maximum time to wait, {@link Long#MAX_VALUE} to wait until a slot is free
+     * @return {@code false} if no slot got free within the timeout
+     */
+    boolean acquire(RequestPriority priority, long timeoutMillis) throws InterruptedException {
+        if (maxConcurrentRequests <= 0) {
+            return true;
+        }
+        int lane = priority.ordinal();
+        lock.lock();
+        try {
+            if (waiting[lane] == 0 && isAvailable(lane)) {
+                inFlight++;
+                return true;
+            }
+            long start = System.nanoTime();
+            long remainingNanos = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            waiting[lane]++;
+            try {
+                while (!isAvailable(lane)) {
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    remainingNanos = available[lane].awaitNanos(remainingNanos);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                waiting[lane]--;
+                statistics.requestQueued(priority, System.nanoTime() - start);
+                // a slot that was meant for this request or that it held back from the background lane is passed on
+                signalNext();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        if (maxConcurrentRequests <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests that wait for a slot in the given lane
+     */
+    int getQueueDepth(RequestPriority priority) {
+        lock.lock();
+        try {
+            return waiting[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests that hold a slot
+     */
+    int getInFlightRequests() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isAvailable(int lane) {
+        if (inFlight >= maxConcurrentRequests) {
+            return false;
+        }
+        for (int higher = 0; higher < lane; higher++) {
+            if (waiting[higher] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void signalNext() {
+        if (inFlight >= maxConcurrentRequests) {
+            return;
+        }
+        for (int lane = 0; lane < waiting.length; lane++) {
+            if (waiting[lane] > 0) {
+                available[lane].signal();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import javax.ws.rs.ProcessingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a Bitbucket Server that failed repeatedly.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and all requests fail fast. Once
+ * {@code openDelay} has passed the circuit is half-open: a single trial request is let through, its success closes the
+ * circuit again while its failure keeps it open for another delay. A trial that ends without either, for example
+ * because its deadline ran out, is handed to the next request.
+ *
+ * @author Robin Müller
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDelayMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String name, int failureThreshold, long openDelay, TimeUnit unit) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDelayMillis = unit.toMillis(openDelay);
+    }
+
+    /**
+     * Every request that was let through must be {@link #release(boolean) released} once it is done.
+     *
+     * @return {@code true} if the request is the trial of a half-open circuit
+     * @throws ProcessingException if the circuit is open and the request must not be sent
+     */
+    synchronized boolean acquire() {
+        if (state == State.CLOSED || failureThreshold <= 0) {
+            return false;
+        }
+        if (!trialInFlight && (state == State.HALF_OPEN || System.currentTimeMillis() - openedAt >= openDelayMillis)) {
+            state = State.HALF_OPEN;
+            trialInFlight = true;
+            return true;
+        }
+        throw new ProcessingException("Bitbucket Server " + name + " is unavailable, requests are suspended after "
+                                      + consecutiveFailures + " consecutive failures");
+    }
+
+    synchronized void success() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    synchronized void failure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param trial whether the request was the trial that {@link #acquire()} let through
+     */
+    synchronized void release(boolean trial) {
+        if (trial) {
+            trialInFlight = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,26 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Thrown when a request to Bitbucket Server could not finish within the time budget of a {@link RequestDeadline}.
+ *
+ * @author Robin Müller
+ */
+public class DeadlineExceededException extends ProcessingException {
+
+    private final String request;
+
+    DeadlineExceededException(RequestDeadline deadline, String request, Throwable cause) {
+        super(String.format("%s did not finish within the time budget of %d ms of the %s", request, deadline.getBudgetMillis(), deadline.getName()),
+              cause);
+        this.request = request;
+    }
+
+    /**
+     * @return the request that exceeded the time budget
+     */
+    public String getRequest() {
+        return request;
+    }
+}
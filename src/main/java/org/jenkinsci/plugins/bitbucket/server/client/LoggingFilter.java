@@ -17,6 +17,7 @@ import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.ClientResponseContext;
 import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import java.io.ByteArrayInputStream;
@@ -75,6 +76,10 @@ class LoggingFilter implements ClientRequestFilter, ClientResponseFilter {
     }
 
     private String getPrettyPrintResponseBody(ClientResponseContext responseContext) {
+        String contentEncoding = responseContext.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+        if (contentEncoding != null) {
+            return "[" + contentEncoding + " encoded]";
+        }
         String responseBody = getResponseBody(responseContext);
         if (StringUtils.isNotEmpty(responseBody) && responseContext.getMediaType().isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
             return toPrettyPrint(responseBody);
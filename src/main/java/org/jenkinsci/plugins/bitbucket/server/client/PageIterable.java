@@ -0,0 +1,13 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+/**
+ * Iterates over all values of a paged resource. Pages are read while iterating, so an iteration that is stopped
+ * before its end must be closed to release the response of the current page.
+ *
+ * @author Robin Müller
+ */
+public interface PageIterable<T> extends Iterable<T>, AutoCloseable {
+
+    @Override
+    void close();
+}
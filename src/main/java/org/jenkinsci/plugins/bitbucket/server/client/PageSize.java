@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+import org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many values the pages of a paged resource are requested with.
+ * <p>
+ * Without a size the server's default of {@value #SERVER_DEFAULT_PAGE_SIZE} applies. In adaptive mode the size is
+ * doubled for the next page as long as the server answers within the response time target and halved when it takes
+ * longer, so a repository with thousands of branches needs a handful of requests instead of hundreds.
+ *
+ * @author Robin Müller
+ */
+class PageSize {
+
+    static final PageSize SERVER_DEFAULT = new PageSize(0, 0, 0);
+
+    /**
+     * The number of values Bitbucket Server returns if a request does not specify a limit.
+     */
+    static final int SERVER_DEFAULT_PAGE_SIZE = 25;
+
+    private final int initialSize;
+    private final int maxSize;
+    private final long responseTimeTargetNanos;
+
+    /**
+     * @param initialSize              the size of the first page, {@code 0} for the server's default
+     * @param maxSize                  the maximum size the server accepts, {@code 0} for no maximum
+     * @param responseTimeTargetMillis the response time the page size is adapted to, {@code 0} for a fixed size
+     */
+    PageSize(int initialSize, int maxSize, long responseTimeTargetMillis) {
+        this.initialSize = maxSize > 0 && initialSize > maxSize ? maxSize : initialSize;
+        this.maxSize = maxSize;
+        this.responseTimeTargetNanos = TimeUnit.MILLISECONDS.toNanos(responseTimeTargetMillis);
+    }
+
+    static PageSize of(int size, BitbucketClientConfiguration clientConfiguration) {
+        return new PageSize(size, clientConfiguration.getMaxPageSize(), clientConfiguration.getPageResponseTimeTarget());
+    }
+
+    /**
+     * @param previous      the last page, {@code null} for the first request
+     * @param responseNanos the time the last page took to arrive
+     * @return the request of the page that follows {@code previous}, {@code null} to use the server's defaults
+     */
+    PageRequest nextPage(Page<?> previous, long responseNanos) {
+        if (previous == null) {
+            return initialSize > 0 ? new PageRequest(null, initialSize) : null;
+        }
+        return nextPage(previous.getStart(), previous.getLimit(), responseNanos);
+    }
+
+    /**
+     * @param start the start of the last page
+     * @param limit the limit the server applied to the last page
+     * @return the request of the page that follows the last page
+     */
+    PageRequest nextPage(int start, int limit, long responseNanos) {
+        return new PageRequest(start + limit, responseTimeTargetNanos > 0 ? adapt(limit, responseNanos) : limit);
+    }
+
+    private int adapt(int size, long responseNanos) {
+        int minSize = initialSize > 0 ? initialSize : SERVER_DEFAULT_PAGE_SIZE;
+        if (responseNanos > responseTimeTargetNanos) {
+            return Math.max(minSize, size / 2);
+        }
+        int grown = size > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : size * 2;
+        return maxSize > 0 ? Math.min(maxSize, grown) : grown;
+    }
+}
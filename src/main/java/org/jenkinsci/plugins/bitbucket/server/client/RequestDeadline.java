@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import javax.annotation.CheckForNull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget for the Bitbucket Server requests of an operation.
+ * <p>
+ * A deadline that is {@link #start(String, long, TimeUnit) started} applies to all requests that the current thread
+ * sends until it is closed, e.g. to all requests of a scan. A request that is still running when the budget is used
+ * up fails with a {@link DeadlineExceededException} naming the request.
+ *
+ * @author Robin Müller
+ */
+public final class RequestDeadline implements AutoCloseable {
+
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    private final String name;
+    private final long budgetMillis;
+    private final long deadlineNanos;
+    private final RequestDeadline previous;
+    private final boolean bound;
+
+    private RequestDeadline(String name, long budgetMillis, RequestDeadline previous, boolean bound) {
+        this.name = name;
+        this.budgetMillis = budgetMillis;
+        this.previous = previous;
+        this.bound = bound;
+        long deadline = budgetMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis) : Long.MAX_VALUE;
+        this.deadlineNanos = previous != null ? Math.min(deadline, previous.deadlineNanos) : deadline;
+    }
+
+    private RequestDeadline(RequestDeadline deadline, RequestDeadline previous) {
+        this.name = deadline.name;
+        this.budgetMillis = deadline.budgetMillis;
+        this.deadlineNanos = deadline.deadlineNanos;
+        this.previous = previous;
+        this.bound = true;
+    }
+
+    /**
+     * Starts a deadline for the requests of the current thread.
+     *
+     * @param name   describes the operation in the error message, e.g. {@code "scan of PROJECT/repo"}
+     * @param budget the time the requests may take, {@code 0} for no limit
+     */
+    public static RequestDeadline start(String name, long budget, TimeUnit unit) {
+        RequestDeadline deadline = new RequestDeadline(name, unit.toMillis(budget), CURRENT.get(), true);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * @return a deadline for a single operation that is not bound to the current thread
+     */
+    static RequestDeadline of(String name, long budget, TimeUnit unit) {
+        return new RequestDeadline(name, unit.toMillis(budget), null, false);
+    }
+
+    /**
+     * Binds the deadline of another thread to the current thread, e.g. for a request that is sent on its behalf.
+     *
+     * @return the bound deadline that has to be closed, {@code null} if {@code deadline} is {@code null}
+     */
+    @CheckForNull
+    static RequestDeadline bind(@CheckForNull RequestDeadline deadline) {
+        if (deadline == null) {
+            return null;
+        }
+        RequestDeadline bound = new RequestDeadline(deadline, CURRENT.get());
+        CURRENT.set(bound);
+        return bound;
+    }
+
+    /**
+     * @return the deadline of the current thread, {@code null} if there is none
+     */
+    @CheckForNull
+    static RequestDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the earlier of both deadlines, {@code null} if both are {@code null}
+     */
+    @CheckForNull
+    static RequestDeadline earliest(@CheckForNull RequestDeadline first, @CheckForNull RequestDeadline second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return first.deadlineNanos <= second.deadlineNanos ? first : second;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    boolean isLimited() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    long remainingMillis() {
+        if (!isLimited()) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+
+    boolean isExpired() {
+        return isLimited() && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    @Override
+    public void close() {
+        if (!bound) {
+            return;
+        }
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
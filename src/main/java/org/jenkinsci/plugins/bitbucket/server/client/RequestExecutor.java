@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a request to Bitbucket Server and deals with an overloaded or unavailable server.
+ * <ul>
+ * <li>{@code 429 Too Many Requests} pauses the server's rate limiter for the {@code Retry-After} time and the
+ * request is sent again.</li>
+ * <li>Failed connections and {@code 502}, {@code 503} and {@code 504} answers are retried with exponential backoff
+ * and full jitter, but only for idempotent requests.</li>
+ * <li>{@code 401 Unauthorized} answers are sent once more if the client authenticates with a session and the request
+ * sent a session that has expired, see {@link SessionCookieFilter}.</li>
+ * <li>All requests go through the server's circuit breaker.</li>
+ * </ul>
+ *
+ * @author Robin Müller
+ */
+class RequestExecutor {
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ServerRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final int rateLimitRetries;
+    private final int retries;
+    private final long backoffMillis;
+    private final boolean reauthenticate;
+
+    RequestExecutor(ServerRateLimiter rateLimiter, CircuitBreaker circuitBreaker, int rateLimitRetries, int retries, long backoffMillis) {
+        this(rateLimiter, circuitBreaker, rateLimitRetries, retries, backoffMillis, false);
+    }
+
+    RequestExecutor(ServerRateLimiter rateLimiter, CircuitBreaker circuitBreaker, int rateLimitRetries, int retries, long backoffMillis,
+                    boolean reauthenticate) {
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimitRetries = rateLimitRetries;
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+        this.reauthenticate = reauthenticate;
+    }
+
+    <T> T execute(boolean idempotent, Callable<T> request) throws Exception {
+        int rateLimitRetry = 0;
+        int retry = 0;
+        boolean reauthenticated = false;
+        while (true) {
+            boolean trial = circuitBreaker.acquire();
+            try {
+                T result = request.call();
+                circuitBreaker.success();
+                return result;
+            } catch (WebApplicationException e) {
+                int status = e.getResponse() == null ? 0 : e.getResponse().getStatus();
+                if (isServerUnavailable(status)) {
+                    circuitBreaker.failure();
+                } else {
+                    // the server answered, even if it rejected the request
+                    circuitBreaker.success();
+                }
+                if (status == ServerRateLimiter.TOO_MANY_REQUESTS && rateLimitRetry++ < rateLimitRetries) {
+                    // the request was rejected without being processed, so it is safe to send it again for any method
+                    String retryAfter = e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER);
+                    rateLimiter.pause(ServerRateLimiter.parseRetryAfter(retryAfter, System.currentTimeMillis()));
+                    continue;
+                }
+                if (status == Response.Status.UNAUTHORIZED.getStatusCode() && reauthenticate && !reauthenticated && isSessionDropped(e)) {
+                    // the session was dropped by the authentication filter, the request is sent with the credentials
+                    reauthenticated = true;
+                    continue;
+                }
+                if (!isServerUnavailable(status) || !idempotent || retry >= retries || !backoff(retry++)) {
+                    throw e;
+                }
+            } catch (DeadlineExceededException e) {
+                // the time budget is used up, another attempt would exceed it as well
+                throw e;
+            } catch (ProcessingException e) {
+                if (Thread.currentThread().isInterrupted() || !isConnectionFailure(e)) {
+                    // neither says anything about the server, e.g. an answer that could not be mapped
+                    throw e;
+                }
+                circuitBreaker.failure();
+                if (!idempotent || retry >= retries || !backoff(retry++)) {
+                    throw e;
+                }
+            } finally {
+                circuitBreaker.release(trial);
+            }
+        }
+    }
+
+    private boolean isSessionDropped(WebApplicationException e) {
+        return e.getResponse().getHeaderString(SessionCookieFilter.SESSION_DROPPED_HEADER) != null;
+    }
+
+    private boolean isServerUnavailable(int status) {
+        return status == Response.Status.BAD_GATEWAY.getStatusCode()
+               || status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()
+               || status == Response.Status.GATEWAY_TIMEOUT.getStatusCode();
+    }
+
+    /**
+     * Jersey wraps the {@link IOException} of a failed connection, while Jackson's mapping errors are I/O exceptions as
+     * well but come from an answer that was received.
+     */
+    private boolean isConnectionFailure(ProcessingException e) {
+        return e.getCause() instanceof IOException && !(e.getCause() instanceof JsonProcessingException);
+    }
+
+    private boolean backoff(int retry) {
+        long maxDelay = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(retry, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+/**
+ * Lane of the {@link Bulkhead} the Bitbucket Server requests of the current thread wait in when the server has too
+ * many requests in flight.
+ * <p>
+ * Requests are {@link #INTERACTIVE} unless the thread {@link #enter(RequestPriority) entered} another priority, so
+ * only the periodic scans have to mark their requests.
+ *
+ * @author Robin Müller
+ */
+public enum RequestPriority {
+
+    /**
+     * Form validation, build statuses, webhook registration and webhook triggered scans, someone is waiting for them.
+     */
+    INTERACTIVE,
+    /**
+     * Periodic scans of repositories and projects, they only get a free slot while no interactive request waits.
+     */
+    BACKGROUND;
+
+    private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Sets the priority of the requests the current thread sends until the returned scope is closed.
+     */
+    public static Scope enter(RequestPriority priority) {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(priority);
+        return scope;
+    }
+
+    /**
+     * @return the priority of the requests of the current thread
+     */
+    static RequestPriority current() {
+        RequestPriority priority = CURRENT.get();
+        return priority != null ? priority : INTERACTIVE;
+    }
+
+    public static final class Scope implements AutoCloseable {
+
+        private final RequestPriority previous;
+
+        private Scope(RequestPriority previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
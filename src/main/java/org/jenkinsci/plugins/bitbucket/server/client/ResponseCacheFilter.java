@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Caches the responses of GET requests that carry an {@code ETag} or {@code Last-Modified} validator and
+ * revalidates them with a conditional request. On {@code 304 Not Modified} the cached body is handed to Jersey as
+ * if it had been sent again, so unchanged pages are not transferred a second time.
+ * <p>
+ * The cache is bounded by the size of the bodies it keeps. Bodies larger than an eighth of it are passed on as a
+ * stream without being cached, as are the responses of requests that set {@link #BYPASS_PROPERTY}. Smaller bodies are
+ * cached even if the caller reads them as a stream, e.g. the streamed pages of branches and repositories: such a page
+ * is read from the buffered body, and replayed from the cache on {@code 304 Not Modified}.
+ * <p>
+ * An instance must not be shared between clients with different credentials.
+ *
+ * @author Robin Müller
+ */
+@Priority(Priorities.HEADER_DECORATOR)
+class ResponseCacheFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    static final String BYPASS_PROPERTY = ResponseCacheFilter.class.getName() + ".bypass";
+
+    private static final String CACHED_RESPONSE_PROPERTY = ResponseCacheFilter.class.getName() + ".cachedResponse";
+
+    private final Cache<String, CachedResponse> cache;
+    private final long maximumBodySize;
+    private final BitbucketClientStatistics statistics;
+
+    /**
+     * @param maximumWeight the maximum number of bytes of the cached bodies
+     */
+    ResponseCacheFilter(long maximumWeight, BitbucketClientStatistics statistics) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(new Weigher<String, CachedResponse>() {
+                    @Override
+                    public int weigh(String uri, CachedResponse cachedResponse) {
+                        return cachedResponse.body.length;
+                    }
+                })
+                .build();
+        this.maximumBodySize = maximumWeight / 8;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        if (!isCacheable(requestContext)) {
+            return;
+        }
+        CachedResponse cachedResponse = cache.getIfPresent(requestContext.getUri().toString());
+        if (cachedResponse != null) {
+            if (cachedResponse.eTag != null) {
+                requestContext.getHeaders().putSingle(HttpHeaders.IF_NONE_MATCH, cachedResponse.eTag);
+            }
+            if (cachedResponse.lastModified != null) {
+                requestContext.getHeaders().putSingle(HttpHeaders.IF_MODIFIED_SINCE, cachedResponse.lastModified);
+            }
+            requestContext.setProperty(CACHED_RESPONSE_PROPERTY, cachedResponse);
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        if (!isCacheable(requestContext)) {
+            return;
+        }
+        CachedResponse cachedResponse = (CachedResponse) requestContext.getProperty(CACHED_RESPONSE_PROPERTY);
+        if (responseContext.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode() && cachedResponse != null) {
+            statistics.responseCacheHit();
+            responseContext.setStatus(Response.Status.OK.getStatusCode());
+            if (cachedResponse.contentType != null) {
+                responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_TYPE, cachedResponse.contentType);
+            }
+            responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_LENGTH, String.valueOf(cachedResponse.body.length));
+            if (cachedResponse.contentEncoding != null) {
+                responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, cachedResponse.contentEncoding);
+            }
+            responseContext.setEntityStream(new ByteArrayInputStream(cachedResponse.body));
+        } else if (responseContext.getStatus() == Response.Status.OK.getStatusCode() && hasValidator(responseContext)) {
+            byte[] body = readEntity(responseContext);
+            if (body != null) {
+                statistics.responseCacheMiss();
+                cache.put(requestContext.getUri().toString(),
+                          new CachedResponse(responseContext.getHeaderString(HttpHeaders.ETAG),
+                                             responseContext.getHeaderString(HttpHeaders.LAST_MODIFIED),
+                                             responseContext.getHeaderString(HttpHeaders.CONTENT_TYPE),
+                                             responseContext.getHeaderString(HttpHeaders.CONTENT_ENCODING),
+                                             body));
+            }
+        }
+    }
+
+    private boolean isCacheable(ClientRequestContext requestContext) {
+        return HttpMethod.GET.equals(requestContext.getMethod()) && !Boolean.TRUE.equals(requestContext.getProperty(BYPASS_PROPERTY));
+    }
+
+    private boolean hasValidator(ClientResponseContext responseContext) {
+        return responseContext.getHeaderString(HttpHeaders.ETAG) != null || responseContext.getHeaderString(HttpHeaders.LAST_MODIFIED) != null;
+    }
+
+    /**
+     * @return the body of the response, {@code null} if it is too large to be cached and is passed on as a stream
+     */
+    private byte[] readEntity(ClientResponseContext responseContext) throws IOException {
+        InputStream entityStream = responseContext.getEntityStream();
+        if (entityStream == null) {
+            return new byte[0];
+        }
+        if (responseContext.getLength() > maximumBodySize) {
+            return null;
+        }
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        try {
+            if (IOUtils.copyLarge(entityStream, head, 0, maximumBodySize + 1) > maximumBodySize) {
+                // the rest is read as it is consumed
+                responseContext.setEntityStream(new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), entityStream));
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            entityStream.close();
+            throw e;
+        }
+        entityStream.close();
+        byte[] body = head.toByteArray();
+        responseContext.setEntityStream(new ByteArrayInputStream(body));
+        return body;
+    }
+
+    private static class CachedResponse {
+        private final String eTag;
+        private final String lastModified;
+        private final String contentType;
+        private final String contentEncoding;
+        private final byte[] body;
+
+        private CachedResponse(String eTag, String lastModified, String contentType, String contentEncoding, byte[] body) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.lang.StringUtils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the requests sent to one Bitbucket Server.
+ * <p>
+ * Besides the configured permit rate, the whole server can be paused when it answers with
+ * {@code 429 Too Many Requests}. All callers are then held back until the time given by the {@code Retry-After}
+ * header has passed.
+ *
+ * @author Robin Müller
+ */
+class ServerRateLimiter {
+
+    static final int TOO_MANY_REQUESTS = 429;
+    static final long DEFAULT_RETRY_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String RFC_1123_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final AtomicLong pausedUntil = new AtomicLong();
+    private volatile RateLimiter rateLimiter;
+
+    ServerRateLimiter(double permitsPerSecond) {
+        setRate(permitsPerSecond);
+    }
+
+    /**
+     * @return the current permits per second, {@code 0} if the requests are not limited
+     */
+    double getRate() {
+        RateLimiter limiter = rateLimiter;
+        return limiter == null ? 0 : limiter.getRate();
+    }
+
+    synchronized void setRate(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            rateLimiter = null;
+        } else if (rateLimiter == null) {
+            rateLimiter = RateLimiter.create(permitsPerSecond);
+        } else {
+            rateLimiter.setRate(permitsPerSecond);
+        }
+    }
+
+    void acquire() throws InterruptedException {
+        tryAcquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * Gives up right away if the server is paused for longer than the timeout or the next permit is not available
+     * within it, rather than waiting for the timeout to pass.
+     *
+     * @return {@code true} if a permit was taken within the timeout
+     */
+    boolean tryAcquire(long timeoutMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long waitMillis = pausedUntil.get() - start;
+        while (waitMillis > 0) {
+            if (waitMillis > timeoutMillis - (System.currentTimeMillis() - start)) {
+                return false;
+            }
+            Thread.sleep(waitMillis);
+            waitMillis = pausedUntil.get() - System.currentTimeMillis();
+        }
+        RateLimiter limiter = rateLimiter;
+        return limiter == null
+               || limiter.tryAcquire(1, Math.max(timeoutMillis - (System.currentTimeMillis() - start), 0), TimeUnit.MILLISECONDS);
+    }
+
+    void pause(long millis) {
+        long until = System.currentTimeMillis() + millis;
+        long current = pausedUntil.get();
+        while (current < until && !pausedUntil.compareAndSet(current, until)) {
+            current = pausedUntil.get();
+        }
+    }
+
+    /**
+     * Parses the value of a {@code Retry-After} header, which is either a number of seconds or an HTTP date.
+     *
+     * @return the delay in milliseconds, limited to {@link #MAX_RETRY_AFTER_MILLIS}
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (StringUtils.isBlank(retryAfter)) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+        long delay;
+        if (StringUtils.isNumeric(retryAfter.trim())) {
+            delay = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } else {
+            try {
+                SimpleDateFormat dateFormat = new SimpleDateFormat(RFC_1123_DATE_FORMAT, Locale.US);
+                dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+                delay = dateFormat.parse(retryAfter.trim()).getTime() - now;
+            } catch (ParseException e) {
+                return DEFAULT_RETRY_AFTER_MILLIS;
+            }
+        }
+        return Math.min(Math.max(delay, 0), MAX_RETRY_AFTER_MILLIS);
+    }
+}
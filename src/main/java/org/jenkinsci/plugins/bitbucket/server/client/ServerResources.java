@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State shared by all clients of one Bitbucket Server base URL, regardless of the credentials and settings they use,
+ * so the limits hold for the combined requests to the server. The limits and the number of async threads are taken
+ * from the configuration that was used first.
+ * <p>
+ * The probe threads are shared as well, there are as many of them as the running scans probe branches at the same
+ * time. Each scan bounds its own number of probes.
+ *
+ * @author Robin Müller
+ */
+class ServerResources {
+
+    private final BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+    private final ServerRateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+    private final ListeningExecutorService asyncExecutor;
+    private final ExecutorService probeExecutor;
+
+    ServerResources(BitbucketClientConfiguration clientConfiguration) {
+        rateLimiter = new ServerRateLimiter(clientConfiguration.getRequestsPerSecond());
+        circuitBreaker = new CircuitBreaker(clientConfiguration.getBaseUrl(),
+                                            clientConfiguration.getCircuitBreakerThreshold(),
+                                            clientConfiguration.getCircuitBreakerDelay(),
+                                            TimeUnit.SECONDS);
+        bulkhead = new Bulkhead(clientConfiguration.getMaxConcurrentRequests(), statistics);
+        asyncExecutor = MoreExecutors.listeningDecorator(newExecutor(clientConfiguration.getAsyncThreads(),
+                                                                     "BitbucketServerAsyncClient " + clientConfiguration.getBaseUrl()));
+        probeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                                               new SynchronousQueue<Runnable>(),
+                                               new NamingThreadFactory(new DaemonThreadFactory(), "BitbucketServerProbe " + clientConfiguration.getBaseUrl()));
+    }
+
+    BitbucketClientStatistics getStatistics() {
+        return statistics;
+    }
+
+    ServerRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    ListeningExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    ExecutorService getProbeExecutor() {
+        return probeExecutor;
+    }
+
+    /**
+     * Stops the threads of the server once their running tasks are done, no new tasks are accepted.
+     */
+    void shutdown() {
+        asyncExecutor.shutdown();
+        probeExecutor.shutdown();
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String name) {
+        int poolSize = Math.max(1, threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(),
+                                                             new NamingThreadFactory(new DaemonThreadFactory(), name));
+        // idle servers do not keep any threads
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
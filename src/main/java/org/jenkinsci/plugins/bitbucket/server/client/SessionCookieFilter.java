@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Authenticates with the username and password until Bitbucket Server started a session, then sends the session cookie
+ * instead so the server does not have to verify the password on every request.
+ * <p>
+ * A {@code 401 Unauthorized} answer to a request that sent the session cookie drops the session, the next request
+ * authenticates with the username and password again. Such an answer is marked with {@link #SESSION_DROPPED_HEADER}
+ * and {@link RequestExecutor} sends the request once more. An answer to a request that sent the username and password
+ * is not marked, another attempt would fail the login again.
+ *
+ * @author Robin Müller
+ */
+@Priority(Priorities.HEADER_DECORATOR)
+class SessionCookieFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    static final String SESSION_COOKIE = "JSESSIONID";
+    static final String SESSION_DROPPED_HEADER = "X-Jenkins-Bitbucket-Session-Dropped";
+    private static final String SESSION_PROPERTY = SessionCookieFilter.class.getName() + ".session";
+    private static final String XSRF_HEADER = "X-Atlassian-Token";
+
+    private final BasicAuthFilter basicAuthFilter;
+    private final AtomicReference<String> session = new AtomicReference<>();
+
+    SessionCookieFilter(BasicAuthFilter basicAuthFilter) {
+        this.basicAuthFilter = basicAuthFilter;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        String currentSession = session.get();
+        if (currentSession == null) {
+            basicAuthFilter.filter(requestContext);
+            return;
+        }
+        requestContext.setProperty(SESSION_PROPERTY, currentSession);
+        requestContext.getHeaders().add(HttpHeaders.COOKIE, SESSION_COOKIE + "=" + currentSession);
+        if (!HttpMethod.GET.equals(requestContext.getMethod())) {
+            // cookie authenticated requests that change data are subject to the XSRF check of Bitbucket Server
+            requestContext.getHeaders().add(XSRF_HEADER, "no-check");
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        Object usedSession = requestContext.getProperty(SESSION_PROPERTY);
+        if (responseContext.getStatus() == Response.Status.UNAUTHORIZED.getStatusCode()) {
+            if (usedSession != null) {
+                session.compareAndSet((String) usedSession, null);
+                responseContext.getHeaders().putSingle(SESSION_DROPPED_HEADER, "true");
+            }
+            return;
+        }
+        NewCookie cookie = responseContext.getCookies().get(SESSION_COOKIE);
+        if (cookie != null) {
+            session.set(cookie.getMaxAge() == 0 ? null : cookie.getValue());
+        }
+    }
+
+    boolean hasSession() {
+        return session.get() != null;
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.CheckForNull;
+import javax.ws.rs.ProcessingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Lets concurrent identical requests share one response: the first caller sends the request, the others wait for its
+ * result. The waiting callers get the same result object, or the same exception, so the result must not be changed
+ * by any of them. A waiting caller gives up once its own deadline has passed, even if the request it waits for has a
+ * longer one.
+ * <p>
+ * The request runs with the deadline and the {@link RequestPriority} of the first caller. A waiting caller of a higher
+ * priority waits as long as the request of the first caller queues in its lane of the {@link Bulkhead}.
+ *
+ * @author Robin Müller
+ */
+class SingleFlight {
+
+    private final ConcurrentMap<String, SettableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final BitbucketClientStatistics statistics;
+
+    SingleFlight(BitbucketClientStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param deadline the deadline of the caller, {@code null} to wait for a running request as long as it takes
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String endpoint, String key, @CheckForNull RequestDeadline deadline, Callable<T> request) throws Exception {
+        SettableFuture<Object> future = SettableFuture.create();
+        SettableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            statistics.requestCoalesced(endpoint);
+            return (T) await(running, deadline, endpoint + " (waiting for " + key + ")");
+        }
+        try {
+            T result = request.call();
+            future.set(result);
+            return result;
+        } catch (Exception | Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object await(SettableFuture<Object> running, RequestDeadline deadline, String request) throws Exception {
+        try {
+            if (deadline == null || !deadline.isLimited()) {
+                return running.get();
+            }
+            return running.get(Math.max(deadline.remainingMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the request keeps running for the callers with more time
+            throw new DeadlineExceededException(deadline, request, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+}
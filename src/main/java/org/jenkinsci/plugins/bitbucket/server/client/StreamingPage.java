@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+
+import javax.ws.rs.ProcessingException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A page that decodes its {@code values} one by one while they are iterated, instead of holding all of them in a
+ * list. Bitbucket Server sends some of the page attributes after the values, so {@link #getStart()},
+ * {@link #getLimit()} and {@link #getIsLastPage()} are only complete once the values have been iterated.
+ * <p>
+ * The values can only be iterated once. The response is closed when the last value has been read.
+ *
+ * @author Robin Müller
+ */
+class StreamingPage<T> extends Page<T> implements Iterable<T>, Closeable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final InputStream entityStream;
+    private final ObjectReader valueReader;
+    private final JsonParser parser;
+    private boolean inValues;
+    private T next;
+
+    StreamingPage(InputStream entityStream, Class<T> valueType) {
+        this.entityStream = entityStream;
+        this.valueReader = OBJECT_MAPPER.readerFor(valueType);
+        try {
+            parser = OBJECT_MAPPER.getFactory().createParser(entityStream);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ProcessingException("Expected a page object but got " + parser.getCurrentToken());
+            }
+            readAttributes();
+        } catch (IOException e) {
+            close();
+            throw new ProcessingException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return readNext();
+            }
+
+            @Override
+            public T next() {
+                if (!readNext()) {
+                    throw new NoSuchElementException();
+                }
+                T value = next;
+                next = null;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+
+    /**
+     * Reads the values that have not been iterated yet.
+     */
+    @Override
+    public List<T> getValues() {
+        List<T> values = new ArrayList<>();
+        for (T value : this) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        inValues = false;
+        IOUtils.closeQuietly(parser);
+        IOUtils.closeQuietly(entityStream);
+    }
+
+    private boolean readNext() {
+        if (next != null) {
+            return true;
+        }
+        if (!inValues) {
+            return false;
+        }
+        try {
+            if (parser.nextToken() == JsonToken.END_ARRAY) {
+                inValues = false;
+                readAttributes();
+                close();
+                return false;
+            }
+            next = valueReader.readValue(parser);
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new ProcessingException(e);
+        }
+    }
+
+    /**
+     * Reads the page attributes up to the start of the values or the end of the page.
+     */
+    private void readAttributes() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (name) {
+                case "size":
+                    setSize(parser.getIntValue());
+                    break;
+                case "limit":
+                    setLimit(parser.getIntValue());
+                    break;
+                case "start":
+                    setStart(parser.getIntValue());
+                    break;
+                case "isLastPage":
+                    setIsLastPage(parser.getBooleanValue());
+                    break;
+                case "values":
+                    if (token == JsonToken.START_ARRAY) {
+                        inValues = true;
+                        return;
+                    }
+                    parser.skipChildren();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the response bytes as received from the network and as read after content decoding.
+ * <p>
+ * The response filter runs before all other response filters and sees the stream as it comes from the connector.
+ * The reader interceptor runs after the content decoders and sees the decoded entity.
+ *
+ * @author Robin Müller
+ */
+class TransferStatisticsFilter implements ClientResponseFilter, ReaderInterceptor {
+
+    private final BitbucketClientStatistics statistics;
+
+    TransferStatisticsFilter(BitbucketClientStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    static Map<Class<?>, Integer> contracts() {
+        Map<Class<?>, Integer> contracts = new HashMap<>();
+        contracts.put(ClientResponseFilter.class, Priorities.USER + 1000);
+        contracts.put(ReaderInterceptor.class, Priorities.USER);
+        return contracts;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        InputStream entityStream = responseContext.getEntityStream();
+        if (entityStream != null) {
+            responseContext.setEntityStream(new CountingInputStream(entityStream, statistics, false));
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+        context.setInputStream(new CountingInputStream(context.getInputStream(), statistics, true));
+        return context.proceed();
+    }
+
+    private static class CountingInputStream extends ProxyInputStream {
+
+        private final BitbucketClientStatistics statistics;
+        private final boolean decoded;
+
+        CountingInputStream(InputStream in, BitbucketClientStatistics statistics, boolean decoded) {
+            super(in);
+            this.statistics = statistics;
+            this.decoded = decoded;
+        }
+
+        @Override
+        protected void afterRead(int n) {
+            if (n > 0 && decoded) {
+                statistics.bytesDecoded(n);
+            } else if (n > 0) {
+                statistics.bytesReceived(n);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.bitbucket.server.filter;
 
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Converter;
 import com.google.common.base.Function;
 import com.google.common.base.Splitter;
@@ -8,6 +9,9 @@ import org.jenkinsci.plugins.bitbucket.server.BitbucketPojoBuilder;
 import org.springframework.util.AntPathMatcher;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -15,11 +19,16 @@ import java.util.regex.Pattern;
  */
 public class BranchFilter {
 
+    private static final CharMatcher REGEX_CONSTRUCTS = CharMatcher.anyOf("[](){}|+^$\\");
+    private static final Splitter WILDCARDS = Splitter.on(CharMatcher.anyOf("*?.")).omitEmptyStrings();
+
+    private final String includePatterns;
     private final Iterable<Pattern> includes;
     private final Iterable<Pattern> excludes;
 
     @BitbucketPojoBuilder
     public BranchFilter(String includes, String excludes) {
+        this.includePatterns = includes;
         this.includes = convert(includes);
         this.excludes = convert(excludes == null ? "" : excludes);
     }
@@ -28,6 +37,32 @@ public class BranchFilter {
         return isBranchNotExcluded(branch) && isBranchIncluded(branch);
     }
 
+    /**
+     * Derives the texts Bitbucket Server can filter the branches by from the literal parts of the include patterns.
+     * Every allowed branch contains at least one of the texts, {@link #isBranchAllowed(String)} still decides about
+     * the branches that do.
+     *
+     * @return the texts, empty if there is an include pattern without a literal part and all branches are needed
+     */
+    public List<String> getFilterTexts() {
+        List<String> filterTexts = new ArrayList<>();
+        for (String include : split(includePatterns)) {
+            String filterText = longestLiteral(include);
+            if (filterText == null) {
+                return Collections.emptyList();
+            }
+            filterTexts.add(filterText);
+        }
+        // a branch that contains a text also contains the texts that are part of it
+        List<String> result = new ArrayList<>();
+        for (String filterText : filterTexts) {
+            if (!containsOtherText(filterText, filterTexts) && !result.contains(filterText)) {
+                result.add(filterText);
+            }
+        }
+        return result;
+    }
+
     private boolean isBranchNotExcluded(String branch) {
         for (Pattern exclude : excludes) {
             if (exclude.matcher(branch).matches()) {
@@ -46,8 +81,35 @@ public class BranchFilter {
         return !includes.iterator().hasNext();
     }
 
+    private String longestLiteral(String include) {
+        if (REGEX_CONSTRUCTS.matchesAnyOf(include)) {
+            // the pattern is a regular expression, a literal part may be optional
+            return null;
+        }
+        String longest = null;
+        for (String literal : WILDCARDS.split(include)) {
+            if (longest == null || literal.length() > longest.length()) {
+                longest = literal;
+            }
+        }
+        return longest;
+    }
+
+    private boolean containsOtherText(String filterText, List<String> filterTexts) {
+        for (String other : filterTexts) {
+            if (other.length() < filterText.length() && filterText.contains(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Iterable<String> split(String commaSeparatedString) {
+        return Splitter.on(",").omitEmptyStrings().trimResults().split(commaSeparatedString);
+    }
+
     private Iterable<Pattern> convert(String commaSeparatedString) {
-        return FluentIterable.from(Splitter.on(",").omitEmptyStrings().trimResults().split(commaSeparatedString)).transform(new Function<String, Pattern>() {
+        return FluentIterable.from(split(commaSeparatedString)).transform(new Function<String, Pattern>() {
             @Nullable
             @Override
             public Pattern apply(@Nullable String input) {
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.bitbucket.server.listener;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes the Bitbucket clients look up their credentials again when the global credentials or the credentials of a
+ * folder changed.
+ * <p>
+ * A folder is saved for any change of its configuration. Its credentials are compared to the ones it had when it was
+ * saved before, the credentials store replaces a credential that is updated, so they are compared by identity. Only the
+ * owners inside a folder whose credentials changed look them up again.
+ *
+ * @author Robin Müller
+ */
+@Extension
+public class CredentialsChangeListener extends SaveableListener {
+
+    private final Cache<ItemGroup<?>, List<Credentials>> folderCredentials = CacheBuilder.newBuilder().weakKeys().build();
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof SystemCredentialsProvider) {
+            invalidateAll();
+        } else if (o instanceof ItemGroup) {
+            ItemGroup<?> folder = (ItemGroup<?>) o;
+            List<Credentials> credentials = credentialsOf(folder);
+            List<Credentials> previous = folderCredentials.getIfPresent(folder);
+            folderCredentials.put(folder, credentials);
+            // the credentials of a folder that was not saved before are not known, they may have changed
+            if (previous == null || !isSame(previous, credentials)) {
+                invalidate(folder);
+            }
+        }
+    }
+
+    List<Credentials> credentialsOf(ItemGroup<?> folder) {
+        List<Credentials> credentials = new ArrayList<>();
+        for (CredentialsStore store : CredentialsProvider.lookupStores(folder)) {
+            // the stores of the parents are listed as well
+            if (store.getContext() == folder) {
+                for (Domain domain : store.getDomains()) {
+                    credentials.addAll(store.getCredentials(domain));
+                }
+            }
+        }
+        return credentials;
+    }
+
+    void invalidateAll() {
+        BitbucketServerClientService.instance().invalidateCredentials();
+    }
+
+    void invalidate(ItemGroup<?> folder) {
+        BitbucketServerClientService.instance().invalidateCredentials(folder);
+    }
+
+    private static boolean isSame(List<Credentials> previous, List<Credentials> current) {
+        if (previous.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            if (previous.get(i) != current.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,181 @@
+package org.jenkinsci.plugins.bitbucket.server;
+
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMHead;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryEntry;
+import org.jenkinsci.plugins.bitbucket.server.api.model.builder.PageBuilder;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
+import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientBuilderMockUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.BrowsePathBuilder.aBrowsePath;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.DirectoryEntryBuilder.aDirectoryEntry;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.DirectoryListingBuilder.aDirectoryListing;
+import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketSCMFileSystemTest {
+
+    private static final String PROJECT = "project";
+    private static final String REPOSITORY = "repository";
+    private static final String HASH = "123abc";
+
+    @Mock
+    private BitbucketServerAPI clientMock;
+    @Mock
+    private BitbucketServerAPI otherClientMock;
+
+    private BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().build();
+
+    @Before
+    public void setup() {
+        BitbucketServerClientBuilderMockUtils.putClient(clientConfiguration, null, clientMock);
+        ProbeStatCache.invalidateAll();
+        BitbucketSCMFileSystem.invalidateContent();
+    }
+
+    @Test
+    public void content_isCachedForCommit() throws IOException, InterruptedException {
+        when(clientMock.getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH)).thenReturn(new ByteArrayInputStream("node {}".getBytes("UTF-8")),
+                                                                                           new ByteArrayInputStream("node {}".getBytes("UTF-8")));
+        when(clientMock.browse(PROJECT, REPOSITORY, "Jenkinsfile", HASH, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+
+        assertThat(fileSystem().getRoot().child("Jenkinsfile").contentAsString(), is("node {}"));
+        assertThat(fileSystem().getRoot().child("Jenkinsfile").contentAsString(), is("node {}"));
+        verify(clientMock, times(1)).getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH);
+    }
+
+    @Test
+    public void content_isNotSharedByOtherCredentials() throws IOException, InterruptedException {
+        BitbucketClientConfiguration otherCredentials = aBitbucketClientConfiguration().credentialsId("other").build();
+        BitbucketServerClientBuilderMockUtils.putClient(otherCredentials, null, otherClientMock);
+        when(clientMock.getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH)).thenReturn(new ByteArrayInputStream("node {}".getBytes("UTF-8")));
+        when(clientMock.browse(PROJECT, REPOSITORY, "Jenkinsfile", HASH, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+        when(otherClientMock.getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH)).thenReturn(new ByteArrayInputStream("node {}".getBytes("UTF-8")));
+        when(otherClientMock.browse(PROJECT, REPOSITORY, "Jenkinsfile", HASH, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+
+        assertThat(fileSystem().getRoot().child("Jenkinsfile").contentAsString(), is("node {}"));
+        assertThat(fileSystem(otherCredentials).getRoot().child("Jenkinsfile").contentAsString(), is("node {}"));
+        verify(clientMock, times(1)).getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH);
+        verify(otherClientMock, times(1)).browse(PROJECT, REPOSITORY, "Jenkinsfile", HASH, true);
+        verify(otherClientMock, times(1)).getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH);
+    }
+
+    @Test
+    public void content_largeFileIsStreamedWithoutCaching() throws IOException, InterruptedException {
+        byte[] content = new byte[BitbucketSCMFileSystem.MAX_CACHED_FILE_SIZE + 1024];
+        Arrays.fill(content, (byte) 'x');
+        final AtomicInteger closedStreams = new AtomicInteger();
+        when(clientMock.getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH)).thenReturn(trackingStream(content, closedStreams),
+                                                                                           trackingStream(content, closedStreams));
+        when(clientMock.browse(PROJECT, REPOSITORY, "Jenkinsfile", HASH, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+
+        for (int i = 1; i <= 2; i++) {
+            try (InputStream stream = fileSystem().getRoot().child("Jenkinsfile").content()) {
+                // the file is still streamed when the consumer starts reading
+                assertThat(closedStreams.get(), is(i - 1));
+                assertThat(IOUtils.toByteArray(stream), is(content));
+            }
+            assertThat(closedStreams.get(), is(i));
+        }
+        verify(clientMock, times(2)).getRawContent(PROJECT, REPOSITORY, "Jenkinsfile", HASH);
+    }
+
+    @Test
+    public void content_deepPath() throws IOException, InterruptedException {
+        String path = "ci/jobs/Jenkinsfile";
+        when(clientMock.getRawContent(PROJECT, REPOSITORY, path, HASH)).thenReturn(new ByteArrayInputStream("node {}".getBytes("UTF-8")));
+        when(clientMock.browse(PROJECT, REPOSITORY, path, HASH, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+
+        assertThat(fileSystem().getRoot().child(path).contentAsString(), is("node {}"));
+        assertThat(fileSystem().getRoot().child("ci").child("jobs").child("Jenkinsfile").contentAsString(), is("node {}"));
+        verify(clientMock, times(1)).getRawContent(PROJECT, REPOSITORY, path, HASH);
+    }
+
+    @Test
+    public void children_ofRoot() throws IOException, InterruptedException {
+        when(clientMock.browseDirectory(PROJECT, REPOSITORY, "", HASH, null, 1000)).thenReturn(aDirectoryListing()
+                .children(PageBuilder.<DirectoryEntry>aPage()
+                                  .isLastPage(true)
+                                  .values(Arrays.asList(aDirectoryEntry().name("Jenkinsfile").type(BrowsePath.Type.FILE).build(),
+                                                        aDirectoryEntry().name("src").type(BrowsePath.Type.DIRECTORY).build()))
+                                  .build())
+                .build());
+
+        List<SCMFile> children = new ArrayList<>();
+        for (SCMFile child : fileSystem().getRoot().children()) {
+            children.add(child);
+        }
+
+        assertThat(children.size(), is(2));
+        assertThat(children.get(0).getName(), is("Jenkinsfile"));
+        assertThat(children.get(0).isFile(), is(true));
+        assertThat(children.get(1).getPath(), is("src"));
+        assertThat(children.get(1).isDirectory(), is(true));
+    }
+
+    @Test
+    public void children_withoutType() throws IOException, InterruptedException {
+        when(clientMock.browseDirectory(PROJECT, REPOSITORY, "", HASH, null, 1000)).thenReturn(aDirectoryListing()
+                .children(PageBuilder.<DirectoryEntry>aPage()
+                                  .isLastPage(true)
+                                  .values(Arrays.asList(aDirectoryEntry().name("module").build()))
+                                  .build())
+                .build());
+
+        SCMFile child = fileSystem().getRoot().children().iterator().next();
+
+        assertThat(child.getName(), is("module"));
+        assertThat(child.getType(), is(SCMFile.Type.OTHER));
+    }
+
+    @Test
+    public void builder_withoutRevision() throws IOException, InterruptedException {
+        BitbucketSCMSource source = new BitbucketSCMSource(null, clientConfiguration, PROJECT, REPOSITORY);
+
+        assertThat(new BitbucketSCMFileSystem.BuilderImpl().build(source, new BranchSCMHead("master"), null), nullValue());
+    }
+
+    private BitbucketSCMFileSystem fileSystem() {
+        return fileSystem(clientConfiguration);
+    }
+
+    private BitbucketSCMFileSystem fileSystem(BitbucketClientConfiguration clientConfiguration) {
+        SCMHead head = new BranchSCMHead("master");
+        return new BitbucketSCMFileSystem(head, new AbstractGitSCMSource.SCMRevisionImpl(head, HASH), clientConfiguration, null, PROJECT, REPOSITORY);
+    }
+
+    private static InputStream trackingStream(byte[] content, final AtomicInteger closedStreams) {
+        return new ByteArrayInputStream(content) {
+            @Override
+            public void close() {
+                closedStreams.incrementAndGet();
+            }
+        };
+    }
+}
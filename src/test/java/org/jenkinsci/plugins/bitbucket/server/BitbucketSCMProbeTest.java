@@ -5,6 +5,8 @@ import jenkins.scm.api.SCMFile;
 import jenkins.scm.api.SCMHead;
 import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
 import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryEntry;
+import org.jenkinsci.plugins.bitbucket.server.api.model.builder.PageBuilder;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientBuilderMockUtils;
 import org.junit.Before;
@@ -14,13 +16,22 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.NotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.BrowsePathBuilder.aBrowsePath;
 import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.CommitBuilder.aCommit;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.DirectoryEntryBuilder.aDirectoryEntry;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.DirectoryListingBuilder.aDirectoryListing;
 import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -37,6 +48,7 @@ public class BitbucketSCMProbeTest {
     @Before
     public void setup() {
         BitbucketServerClientBuilderMockUtils.putClient(clientConfiguration, null, clientMock);
+        ProbeStatCache.invalidateAll();
     }
 
     @Test
@@ -81,6 +93,130 @@ public class BitbucketSCMProbeTest {
         assertThat(probe.stat(path).exists(), is(false));
     }
 
+    @Test
+    public void stat_atRevision_isCachedForCommit() throws IOException {
+        String project = "project";
+        String repository = "repository";
+        String hash = "123abc";
+        String path = "Jenkinsfile";
+
+        when(clientMock.browse(project, repository, path, hash, true)).thenThrow(NotFoundException.class);
+
+        SCMHead master = new SCMHead("master");
+        SCMHead fork = new SCMHead("fork");
+        BitbucketSCMProbe masterProbe = new BitbucketSCMProbe(master, new AbstractGitSCMSource.SCMRevisionImpl(master, hash), clientConfiguration, null, project, repository);
+        BitbucketSCMProbe forkProbe = new BitbucketSCMProbe(fork, new AbstractGitSCMSource.SCMRevisionImpl(fork, hash), clientConfiguration, null, project, repository);
+
+        assertThat(masterProbe.stat(path).exists(), is(false));
+        assertThat(forkProbe.stat(path).exists(), is(false));
+        verify(clientMock, times(1)).browse(project, repository, path, hash, true);
+    }
+
+    @Test
+    public void stat_atRevision_clientErrorIsNotCached() throws IOException {
+        String project = "project";
+        String repository = "repository";
+        String hash = "123abc";
+        String path = "Jenkinsfile";
+
+        when(clientMock.browse(project, repository, path, hash, true)).thenThrow(ClientErrorException.class);
+
+        SCMHead head = new SCMHead("master");
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), clientConfiguration, null, project, repository);
+
+        assertThat(probe.stat(path).exists(), is(false));
+        assertThat(probe.stat(path).exists(), is(false));
+        verify(clientMock, times(2)).browse(project, repository, path, hash, true);
+    }
+
+    @Test
+    public void stat_directoryListing_answersSiblingsWithOneRequest() throws IOException {
+        String project = "project";
+        String repository = "repository";
+        String hash = "123abc";
+        BitbucketClientConfiguration listingConfiguration = aBitbucketClientConfiguration().directoryListingProbes(true).build();
+        BitbucketServerClientBuilderMockUtils.putClient(listingConfiguration, null, clientMock);
+
+        when(clientMock.browseDirectory(project, repository, "", hash, null, 1000)).thenReturn(aDirectoryListing()
+                .children(PageBuilder.<DirectoryEntry>aPage()
+                                  .isLastPage(true)
+                                  .values(Arrays.asList(aDirectoryEntry().name("Jenkinsfile").type(BrowsePath.Type.FILE).build(),
+                                                        aDirectoryEntry().name(".ci").type(BrowsePath.Type.DIRECTORY).build()))
+                                  .build())
+                .build());
+
+        SCMHead head = new SCMHead("master");
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), listingConfiguration, null, project, repository);
+
+        assertThat(probe.stat("Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(probe.stat(".ci").getType(), is(SCMFile.Type.DIRECTORY));
+        assertThat(probe.stat("pom.xml").exists(), is(false));
+        verify(clientMock, times(1)).browseDirectory(project, repository, "", hash, null, 1000);
+        verify(clientMock, never()).browse(anyString(), anyString(), anyString(), anyString(), anyBoolean());
+    }
+
+    @Test
+    public void stat_directoryListing_nestedPath() throws IOException {
+        String hash = "123abc";
+        BitbucketClientConfiguration listingConfiguration = aBitbucketClientConfiguration().directoryListingProbes(true).build();
+        BitbucketServerClientBuilderMockUtils.putClient(listingConfiguration, null, clientMock);
+
+        when(clientMock.browseDirectory("project", "repository", ".ci/jobs", hash, null, 1000)).thenReturn(aDirectoryListing()
+                .children(PageBuilder.<DirectoryEntry>aPage()
+                                  .isLastPage(true)
+                                  .values(Arrays.asList(aDirectoryEntry().name("Jenkinsfile").type(BrowsePath.Type.FILE).build()))
+                                  .build())
+                .build());
+
+        SCMHead head = new SCMHead("master");
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), listingConfiguration, null, "project", "repository");
+
+        assertThat(probe.stat(".ci/jobs/Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(probe.stat(".ci/jobs/pom.xml").exists(), is(false));
+        verify(clientMock, times(1)).browseDirectory("project", "repository", ".ci/jobs", hash, null, 1000);
+    }
+
+    @Test
+    public void stat_directoryListing_notFoundBrowsesPathsWithoutListingAgain() throws IOException {
+        String hash = "123abc";
+        BitbucketClientConfiguration listingConfiguration = aBitbucketClientConfiguration().directoryListingProbes(true).build();
+        BitbucketServerClientBuilderMockUtils.putClient(listingConfiguration, null, clientMock);
+
+        when(clientMock.browseDirectory("project", "repository", ".ci", hash, null, 1000)).thenThrow(new NotFoundException());
+        when(clientMock.browse("project", "repository", ".ci/Jenkinsfile", hash, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+        when(clientMock.browse("project", "repository", ".ci/config.yml", hash, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+
+        SCMHead head = new SCMHead("master");
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), listingConfiguration, null, "project", "repository");
+
+        assertThat(probe.stat(".ci/Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(probe.stat(".ci/config.yml").getType(), is(SCMFile.Type.REGULAR_FILE));
+        verify(clientMock, times(1)).browseDirectory("project", "repository", ".ci", hash, null, 1000);
+    }
+
+    @Test
+    public void stat_directoryListing_largeDirectoryBrowsesPathsWithoutListingAgain() throws IOException {
+        String hash = "123abc";
+        BitbucketClientConfiguration listingConfiguration = aBitbucketClientConfiguration().directoryListingProbes(true).build();
+        BitbucketServerClientBuilderMockUtils.putClient(listingConfiguration, null, clientMock);
+
+        when(clientMock.browseDirectory("project", "repository", "", hash, null, 1000)).thenReturn(aDirectoryListing()
+                .children(PageBuilder.<DirectoryEntry>aPage()
+                                  .isLastPage(false)
+                                  .values(Arrays.asList(aDirectoryEntry().name("a").type(BrowsePath.Type.FILE).build()))
+                                  .build())
+                .build());
+        when(clientMock.browse("project", "repository", "Jenkinsfile", hash, true)).thenReturn(aBrowsePath().type(BrowsePath.Type.FILE).build());
+        when(clientMock.browse("project", "repository", "pom.xml", hash, true)).thenThrow(new NotFoundException());
+
+        SCMHead head = new SCMHead("master");
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), listingConfiguration, null, "project", "repository");
+
+        assertThat(probe.stat("Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(probe.stat("pom.xml").exists(), is(false));
+        verify(clientMock, times(1)).browseDirectory("project", "repository", "", hash, null, 1000);
+    }
+
     @Test
     public void lastModified() {
         String branch = "master";
@@ -96,4 +232,21 @@ public class BitbucketSCMProbeTest {
 
         assertThat(probe.lastModified(), is(timestamp));
     }
+
+    @Test
+    public void lastModified_knownFromBranchDetails() {
+        String branch = "master";
+        String project = "project";
+        String repository = "repository";
+        String hash = "123abc";
+        long timestamp = 123L;
+
+        ProbeStatCache.putAuthorTimestamp(clientConfiguration, project, repository, hash, timestamp);
+
+        SCMHead head = new SCMHead(branch);
+        BitbucketSCMProbe probe = new BitbucketSCMProbe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, hash), clientConfiguration, null, project, repository);
+
+        assertThat(probe.lastModified(), is(timestamp));
+        verify(clientMock, never()).getCommit(project, repository, hash);
+    }
 }
@@ -10,6 +10,7 @@ import hudson.model.TaskListener;
 import hudson.util.LogTaskListener;
 import jenkins.plugins.git.AbstractGitSCMSource;
 import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadEvent;
 import jenkins.scm.api.SCMHeadObserver;
 import jenkins.scm.api.SCMRevision;
 import jenkins.scm.api.SCMSourceCriteria;
@@ -21,16 +22,19 @@ import org.jenkinsci.plugins.bitbucket.server.api.model.Link;
 import org.jenkinsci.plugins.bitbucket.server.api.model.builder.PageBuilder;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketClientConfiguration;
 import org.jenkinsci.plugins.bitbucket.server.client.BitbucketServerClientBuilderMockUtils;
+import org.jenkinsci.plugins.bitbucket.server.webhook.api.BitbucketWebHookEvent;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.WithoutJenkins;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ProcessingException;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -44,8 +48,10 @@ import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.BranchBui
 import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.BrowsePathBuilder.aBrowsePath;
 import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.LinkBuilder.aLink;
 import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+import static org.jenkinsci.plugins.bitbucket.server.webhook.api.builder.BitbucketWebHookEventBuilder.aBitbucketWebHookEvent;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -72,6 +78,8 @@ public class BitbucketSCMSourceTest {
     @Before
     public void setup() {
         BitbucketServerClientBuilderMockUtils.putClient(clientConfiguration, context, clientMock);
+        // the tests reuse commits with different content
+        ProbeStatCache.invalidateAll();
     }
 
     @Test
@@ -81,7 +89,7 @@ public class BitbucketSCMSourceTest {
         String project = "project";
         String repository = "repository";
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Collections.<Branch>emptyList())
                                                                                    .build());
@@ -96,6 +104,23 @@ public class BitbucketSCMSourceTest {
         verify(observer, never()).observe(any(SCMHead.class), any(SCMRevision.class));
     }
 
+    @Test(expected = InterruptedException.class)
+    @WithoutJenkins
+    public void retrieve_interrupted() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+
+        when(clientMock.getBranches(project, repository, null, null, null)).thenThrow(new ProcessingException(new InterruptedException()));
+        when(observer.getIncludes()).thenReturn(null);
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+
+        scmSource.retrieve(null, observer, null, new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+    }
+
     @Test
     @WithoutJenkins
     public void retrieve_noBranches_withCriteria() throws IOException, InterruptedException {
@@ -103,7 +128,7 @@ public class BitbucketSCMSourceTest {
         String project = "project";
         String repository = "repository";
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Collections.<Branch>emptyList())
                                                                                    .build());
@@ -127,7 +152,7 @@ public class BitbucketSCMSourceTest {
         String branch = "master";
         String commitId = "123abc";
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Collections.singletonList(aBranch()
                                                                                                                              .displayId(branch)
@@ -155,14 +180,14 @@ public class BitbucketSCMSourceTest {
         String branch = "master";
         String commitId = "123abc";
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Collections.singletonList(aBranch()
                                                                                                                              .displayId(branch)
                                                                                                                              .latestCommit(commitId)
                                                                                                                              .build()))
                                                                                    .build());
-        when(clientMock.browse(project, repository, "Jenkinsfile", branch, true)).thenThrow(ClientErrorException.class);
+        when(clientMock.browse(project, repository, "Jenkinsfile", commitId, true)).thenThrow(ClientErrorException.class);
         when(observer.getIncludes()).thenReturn(null);
         when(observer.isObserving()).thenReturn(true);
 
@@ -189,14 +214,14 @@ public class BitbucketSCMSourceTest {
                 .latestCommit("456def")
                 .build();
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Arrays.asList(matchingBranch, nonMatchingBranch))
                                                                                    .build());
-        when(clientMock.browse(project, repository, "Jenkinsfile", matchingBranch.getDisplayId(), true)).thenReturn(aBrowsePath()
-                                                                                                                            .type(BrowsePath.Type.FILE)
-                                                                                                                            .build());
-        when(clientMock.browse(project, repository, "Jenkinsfile", nonMatchingBranch.getDisplayId(), true)).thenThrow(ClientErrorException.class);
+        when(clientMock.browse(project, repository, "Jenkinsfile", matchingBranch.getLatestCommit(), true)).thenReturn(aBrowsePath()
+                                                                                                                               .type(BrowsePath.Type.FILE)
+                                                                                                                               .build());
+        when(clientMock.browse(project, repository, "Jenkinsfile", nonMatchingBranch.getLatestCommit(), true)).thenThrow(ClientErrorException.class);
         when(observer.getIncludes()).thenReturn(null);
         when(observer.isObserving()).thenReturn(true);
 
@@ -211,6 +236,120 @@ public class BitbucketSCMSourceTest {
         verify(observer, never()).observe(nonMatchingHead, new AbstractGitSCMSource.SCMRevisionImpl(nonMatchingHead, nonMatchingBranch.getLatestCommit()));
     }
 
+    @Test
+    @WithoutJenkins
+    public void retrieve_includes_filteredByServer() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        String branch = "release/1.0";
+        String commitId = "123abc";
+
+        when(clientMock.getBranches(project, repository, "release/", null, null)).thenReturn(PageBuilder.<Branch>aPage()
+                                                                                   .isLastPage(true)
+                                                                                   .values(Collections.singletonList(aBranch()
+                                                                                                                             .id("refs/heads/" + branch)
+                                                                                                                             .displayId(branch)
+                                                                                                                             .latestCommit(commitId)
+                                                                                                                             .build()))
+                                                                                   .build());
+        when(observer.getIncludes()).thenReturn(null);
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+        scmSource.setIncludes("release/*");
+
+        scmSource.retrieve(null, observer, null, new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        verify(clientMock, times(1)).getBranches(project, repository, "release/", null, null);
+        verify(clientMock, never()).getBranches(project, repository, null, null, null);
+        SCMHead head = new BranchSCMHead(branch);
+        verify(observer, times(1)).observe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, commitId));
+    }
+
+    @Test
+    @WithoutJenkins
+    public void retrieve_includes_branchOfSeveralFilterTextsObservedOnce() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        Branch releaseHotfix = aBranch()
+                .id("refs/heads/release/1.0-hotfix")
+                .displayId("release/1.0-hotfix")
+                .latestCommit("123abc")
+                .build();
+        Branch hotfix = aBranch()
+                .id("refs/heads/feature-hotfix")
+                .displayId("feature-hotfix")
+                .latestCommit("456def")
+                .build();
+
+        when(clientMock.getBranches(project, repository, "release/", null, null)).thenReturn(PageBuilder.<Branch>aPage()
+                                                                                   .isLastPage(true)
+                                                                                   .values(Collections.singletonList(releaseHotfix))
+                                                                                   .build());
+        when(clientMock.getBranches(project, repository, "-hotfix", null, null)).thenReturn(PageBuilder.<Branch>aPage()
+                                                                                   .isLastPage(true)
+                                                                                   .values(Arrays.asList(releaseHotfix, hotfix))
+                                                                                   .build());
+        when(observer.getIncludes()).thenReturn(null);
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+        scmSource.setIncludes("release/*, *-hotfix");
+
+        scmSource.retrieve(null, observer, null, new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        SCMHead releaseHotfixHead = new BranchSCMHead(releaseHotfix.getDisplayId());
+        verify(observer, times(1)).observe(releaseHotfixHead, new AbstractGitSCMSource.SCMRevisionImpl(releaseHotfixHead, releaseHotfix.getLatestCommit()));
+        SCMHead hotfixHead = new BranchSCMHead(hotfix.getDisplayId());
+        verify(observer, times(1)).observe(hotfixHead, new AbstractGitSCMSource.SCMRevisionImpl(hotfixHead, hotfix.getLatestCommit()));
+        verify(observer, times(2)).observe(any(SCMHead.class), any(SCMRevision.class));
+    }
+
+    @Test
+    @WithoutJenkins
+    public void retrieve_parallelProbes_observeInOrder() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        BitbucketClientConfiguration parallelProbesConfiguration = aBitbucketClientConfiguration().parallelProbes(2).build();
+        BitbucketServerClientBuilderMockUtils.putClient(parallelProbesConfiguration, context, clientMock);
+        List<Branch> branches = Arrays.asList(aBranch().displayId("master").latestCommit("123abc").build(),
+                                              aBranch().displayId("no-jenkins-file").latestCommit("456def").build(),
+                                              aBranch().displayId("develop").latestCommit("789abc").build(),
+                                              aBranch().displayId("feature").latestCommit("012def").build());
+
+        when(clientMock.getBranches(project, repository, null, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+                                                                                   .isLastPage(true)
+                                                                                   .values(branches)
+                                                                                   .build());
+        for (Branch branch : branches) {
+            when(clientMock.browse(project, repository, "Jenkinsfile", branch.getLatestCommit(), true)).thenReturn(aBrowsePath()
+                                                                                                                       .type(BrowsePath.Type.FILE)
+                                                                                                                       .build());
+        }
+        when(clientMock.browse(project, repository, "Jenkinsfile", "456def", true)).thenThrow(ClientErrorException.class);
+        when(observer.getIncludes()).thenReturn(null);
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, parallelProbesConfiguration, project, repository);
+        scmSource.setOwner(context);
+
+        scmSource.retrieve(new JenkinsfileCriteria(), observer, null, new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        InOrder inOrder = inOrder(observer);
+        for (Branch branch : branches) {
+            if (!branch.getDisplayId().equals("no-jenkins-file")) {
+                SCMHead head = new BranchSCMHead(branch.getDisplayId());
+                inOrder.verify(observer).observe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getLatestCommit()));
+            }
+        }
+        verify(observer, times(3)).observe(any(SCMHead.class), any(SCMRevision.class));
+    }
+
     @Test
     @WithoutJenkins
     public void retrieve_observeOnlyIncluded() throws IOException, InterruptedException {
@@ -222,7 +361,7 @@ public class BitbucketSCMSourceTest {
         String notIncludedBranch = "not-included";
         String notIncludedCommitId = "456def";
 
-        when(clientMock.getBranches(project, repository, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+        when(clientMock.getBranches(project, repository, includedBranch, null, null)).thenReturn(PageBuilder.<Branch>aPage()
                                                                                    .isLastPage(true)
                                                                                    .values(Arrays.asList(aBranch()
                                                                                                                  .displayId(includedBranch)
@@ -248,6 +387,76 @@ public class BitbucketSCMSourceTest {
         verify(observer, never()).observe(notIncludedHead, new AbstractGitSCMSource.SCMRevisionImpl(notIncludedHead, notIncludedCommitId));
     }
 
+    @Test
+    @WithoutJenkins
+    public void retrieve_event_observeRevisionOfPayload() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        String branch = "master";
+        String commitId = "123abc";
+
+        SCMHead head = new BranchSCMHead(branch);
+        when(observer.getIncludes()).thenReturn(Collections.singleton(head));
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+
+        scmSource.retrieve(null, observer, event(BitbucketWebHookEvent.Type.UPDATE, project, repository, branch, commitId),
+                           new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        verify(observer, times(1)).observe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, commitId));
+        verify(clientMock, never()).getBranches(any(String.class), any(String.class), any(String.class), any(Integer.class), any(Integer.class));
+    }
+
+    @Test
+    @WithoutJenkins
+    public void retrieve_event_deletedBranchIsNotObserved() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        String branch = "master";
+
+        when(observer.getIncludes()).thenReturn(Collections.<SCMHead>singleton(new BranchSCMHead(branch)));
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+
+        scmSource.retrieve(null, observer, event(BitbucketWebHookEvent.Type.DELETE, project, repository, branch, null),
+                           new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        verify(observer, never()).observe(any(SCMHead.class), any(SCMRevision.class));
+        verify(clientMock, never()).getBranches(any(String.class), any(String.class), any(String.class), any(Integer.class), any(Integer.class));
+    }
+
+    @Test
+    @WithoutJenkins
+    public void retrieve_eventWithoutCommit_fallsBackToBranches() throws IOException, InterruptedException {
+        SCMHeadObserver observer = mock(SCMHeadObserver.class);
+        String project = "project";
+        String repository = "repository";
+        String branch = "master";
+        String commitId = "123abc";
+
+        when(clientMock.getBranches(project, repository, branch, null, null)).thenReturn(PageBuilder.<Branch>aPage()
+                .isLastPage(true)
+                .values(Collections.singletonList(aBranch().displayId(branch).latestCommit(commitId).build()))
+                .build());
+        SCMHead head = new BranchSCMHead(branch);
+        when(observer.getIncludes()).thenReturn(Collections.singleton(head));
+        when(observer.isObserving()).thenReturn(true);
+
+        BitbucketSCMSource scmSource = new BitbucketSCMSource(null, clientConfiguration, project, repository);
+        scmSource.setOwner(context);
+
+        scmSource.retrieve(null, observer, event(BitbucketWebHookEvent.Type.CREATE, project, repository, branch, null),
+                           new LogTaskListener(Logger.getLogger("test"), Level.FINE));
+
+        verify(observer, times(1)).observe(head, new AbstractGitSCMSource.SCMRevisionImpl(head, commitId));
+    }
+
     @Test
     public void retrieveCloneUrl_anonymous() {
         String project = "project";
@@ -322,6 +531,19 @@ public class BitbucketSCMSourceTest {
         assertThat(scmSource.retrieveCloneUrl(links), is(sshUrl));
     }
 
+    @SuppressWarnings("unchecked")
+    private SCMHeadEvent<BitbucketWebHookEvent> event(BitbucketWebHookEvent.Type type, String project, String repository, String branch, String commitId) {
+        SCMHeadEvent<BitbucketWebHookEvent> event = mock(SCMHeadEvent.class);
+        when(event.getPayload()).thenReturn(aBitbucketWebHookEvent()
+                                                    .type(type)
+                                                    .project(project)
+                                                    .repository(repository)
+                                                    .branch(branch)
+                                                    .commitId(commitId)
+                                                    .build());
+        return event;
+    }
+
     private static class JenkinsfileCriteria implements SCMSourceCriteria {
         @Override
         public boolean isHead(@NonNull Probe probe, @NonNull TaskListener listener) throws IOException {
@@ -5,10 +5,21 @@ import org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest;
 import org.jenkinsci.plugins.bitbucket.server.api.model.builder.PageBuilder;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -49,4 +60,161 @@ public class APIPageIterableTest {
 
         assertThat(objects, containsInAnyOrder("0", "1", "2", "3", "4", "5"));
     }
+
+    @Test
+    public void prefetchNextPage() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<Integer> requestedStarts = Collections.synchronizedList(new ArrayList<Integer>());
+            APIPageIterable<String> objects = new APIPageIterable<String>(PageSize.SERVER_DEFAULT, executor, 1) {
+                @Override
+                protected Page<String> getNextPage(PageRequest pageRequest) {
+                    int start = pageRequest == null ? 0 : pageRequest.getStart();
+                    requestedStarts.add(start);
+                    return PageBuilder.<String>aPage()
+                            .start(start)
+                            .limit(2)
+                            .isLastPage(start == 4)
+                            .values(Arrays.asList(String.valueOf(start), String.valueOf(start + 1)))
+                            .build();
+                }
+            };
+
+            assertThat(objects, contains("0", "1", "2", "3", "4", "5"));
+            assertThat(requestedStarts, is(Arrays.asList(0, 2, 4)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelPages_inOrderWithoutDuplicates() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            APIPageIterable<String> objects = new APIPageIterable<String>(PageSize.SERVER_DEFAULT, executor, 3) {
+                @Override
+                protected Page<String> getNextPage(PageRequest pageRequest) {
+                    int start = pageRequest == null ? 0 : pageRequest.getStart();
+                    // "3" moved to the next page while the pages were requested
+                    List<String> values = start == 4 ? Arrays.asList("3", "4", "5") : Arrays.asList(String.valueOf(start), String.valueOf(start + 1));
+                    return PageBuilder.<String>aPage()
+                            .start(start)
+                            .limit(2)
+                            .isLastPage(start >= 4)
+                            .values(start > 4 ? Collections.<String>emptyList() : values)
+                            .build();
+                }
+
+                @Override
+                protected Object keyOf(String value) {
+                    return value;
+                }
+            };
+
+            assertThat(objects, contains("0", "1", "2", "3", "4", "5"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelPages_serverReturnsFewerValues() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            // the page size doubles while the server answers fast, but the server returns at most 3 values
+            APIPageIterable<String> objects = new APIPageIterable<String>(new PageSize(2, 0, TimeUnit.MINUTES.toMillis(1)), executor, 3) {
+                @Override
+                protected Page<String> getNextPage(PageRequest pageRequest) {
+                    int start = pageRequest == null || pageRequest.getStart() == null ? 0 : pageRequest.getStart();
+                    int limit = Math.min(pageRequest == null ? 25 : pageRequest.getLimit(), 3);
+                    List<String> values = new ArrayList<>();
+                    for (int i = start; i < Math.min(start + limit, 10); i++) {
+                        values.add(String.valueOf(i));
+                    }
+                    return PageBuilder.<String>aPage()
+                            .start(start)
+                            .limit(limit)
+                            .isLastPage(start + limit >= 10)
+                            .values(values)
+                            .build();
+                }
+            };
+
+            assertThat(objects, contains("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void close_cancelsRunningPrefetch() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch prefetchStarted = new CountDownLatch(1);
+        final AtomicBoolean prefetchInterrupted = new AtomicBoolean();
+        APIPageIterable<String> objects = new APIPageIterable<String>(PageSize.SERVER_DEFAULT, executor, 1) {
+            @Override
+            protected Page<String> getNextPage(PageRequest pageRequest) {
+                if (pageRequest != null) {
+                    prefetchStarted.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        prefetchInterrupted.set(true);
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return PageBuilder.<String>aPage()
+                        .start(0)
+                        .limit(2)
+                        .isLastPage(false)
+                        .values(Arrays.asList("0", "1"))
+                        .build();
+            }
+        };
+
+        assertThat(objects.iterator().next(), is("0"));
+        assertThat(prefetchStarted.await(5, TimeUnit.SECONDS), is(true));
+        objects.close();
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(prefetchInterrupted.get(), is(true));
+    }
+
+    @Test
+    public void close_closesPrefetchedPage() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch prefetched = new CountDownLatch(1);
+        final AtomicBoolean prefetchedPageClosed = new AtomicBoolean();
+        APIPageIterable<String> objects = new APIPageIterable<String>(PageSize.SERVER_DEFAULT, executor, 1) {
+            @Override
+            protected Page<String> getNextPage(PageRequest pageRequest) {
+                if (pageRequest == null) {
+                    return PageBuilder.<String>aPage()
+                            .start(0)
+                            .limit(2)
+                            .isLastPage(false)
+                            .values(Arrays.asList("0", "1"))
+                            .build();
+                }
+                byte[] json = "{\"isLastPage\":true,\"start\":2,\"limit\":2,\"values\":[\"2\",\"3\"]}".getBytes(StandardCharsets.UTF_8);
+                StreamingPage<String> page = new StreamingPage<>(new ByteArrayInputStream(json) {
+                    @Override
+                    public void close() {
+                        prefetchedPageClosed.set(true);
+                    }
+                }, String.class);
+                prefetched.countDown();
+                return page;
+            }
+        };
+
+        assertThat(objects.iterator().next(), is("0"));
+        assertThat(prefetched.await(5, TimeUnit.SECONDS), is(true));
+        objects.close();
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(prefetchedPageClosed.get(), is(true));
+    }
 }
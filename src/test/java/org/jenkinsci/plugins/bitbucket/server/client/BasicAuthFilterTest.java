@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.util.Secret;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+public class BasicAuthFilterTest {
+
+    @ClassRule
+    public static JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void header_isEncodedOnce() throws IOException {
+        StandardUsernamePasswordCredentials credentials = credentials("user", "secret");
+        BasicAuthFilter filter = new BasicAuthFilter(credentials);
+
+        Object first = authorizationOf(filter);
+        Object second = authorizationOf(filter);
+
+        assertThat(first, is((Object) "Basic dXNlcjpzZWNyZXQ="));
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void noCredentials_noHeader() throws IOException {
+        assertThat(authorizationOf(new BasicAuthFilter(null)), is((Object) null));
+    }
+
+    private static StandardUsernamePasswordCredentials credentials(String username, String password) {
+        StandardUsernamePasswordCredentials credentials = mock(StandardUsernamePasswordCredentials.class);
+        when(credentials.getUsername()).thenReturn(username);
+        when(credentials.getPassword()).thenReturn(Secret.fromString(password));
+        return credentials;
+    }
+
+    private static Object authorizationOf(BasicAuthFilter filter) throws IOException {
+        ClientRequestContext request = mock(ClientRequestContext.class);
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        when(request.getHeaders()).thenReturn(headers);
+        filter.filter(request);
+        return headers.getFirst(HttpHeaders.AUTHORIZATION);
+    }
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import hudson.util.Secret;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+public class BearerTokenFilterTest {
+
+    @ClassRule
+    public static JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void header_isBuiltOnce() throws IOException {
+        StandardUsernamePasswordCredentials credentials = mock(StandardUsernamePasswordCredentials.class);
+        when(credentials.getPassword()).thenReturn(Secret.fromString("token"));
+        BearerTokenFilter filter = new BearerTokenFilter(credentials);
+
+        Object first = authorizationOf(filter);
+        Object second = authorizationOf(filter);
+
+        assertThat(first, is((Object) "Bearer token"));
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void noCredentials_noHeader() throws IOException {
+        assertThat(authorizationOf(new BearerTokenFilter(null)), is((Object) null));
+    }
+
+    private static Object authorizationOf(BearerTokenFilter filter) throws IOException {
+        ClientRequestContext request = mock(ClientRequestContext.class);
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        when(request.getHeaders()).thenReturn(headers);
+        filter.filter(request);
+        return headers.getFirst(HttpHeaders.AUTHORIZATION);
+    }
+}
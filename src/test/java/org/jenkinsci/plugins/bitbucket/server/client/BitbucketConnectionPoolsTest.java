@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Robin Müller
+ */
+public class BitbucketConnectionPoolsTest {
+
+    private static final String BASE_URL = "http://localhost:7990/pools";
+
+    private final BitbucketConnectionPools pools = new BitbucketConnectionPools();
+
+    @After
+    public void tearDown() {
+        pools.shutdown();
+    }
+
+    @Test
+    public void getConnectionManager_sharedPerBaseUrl() {
+        HttpClientConnectionManager connectionManager = pools.getConnectionManager(aBitbucketClientConfiguration().baseUrl(BASE_URL).build());
+
+        assertThat(pools.getConnectionManager(aBitbucketClientConfiguration().baseUrl(BASE_URL).maxConnections(5).build()), sameInstance(connectionManager));
+        assertThat(pools.getConnectionManager(aBitbucketClientConfiguration().baseUrl(BASE_URL + "/other").build()), not(sameInstance(connectionManager)));
+        assertThat(evictorThreads(BASE_URL).size(), is(1));
+    }
+
+    @Test
+    public void shutdown_stopsEvictorAndClosesPool() throws InterruptedException {
+        HttpClientConnectionManager connectionManager = pools.getConnectionManager(aBitbucketClientConfiguration().baseUrl(BASE_URL).build());
+        List<Thread> evictors = evictorThreads(BASE_URL);
+
+        pools.shutdown();
+
+        assertStopped(evictors);
+        try {
+            connectionManager.requestConnection(new HttpRoute(new HttpHost("localhost", 7990)), null);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Connection pool shut down"));
+        }
+        assertThat(pools.getConnectionManager(aBitbucketClientConfiguration().baseUrl(BASE_URL).build()), not(sameInstance(connectionManager)));
+    }
+
+    static List<Thread> evictorThreads(String baseUrl) {
+        List<Thread> evictors = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("BitbucketConnectionEvictor " + baseUrl + " ")) {
+                evictors.add(thread);
+            }
+        }
+        return evictors;
+    }
+
+    static void assertStopped(List<Thread> threads) throws InterruptedException {
+        assertThat(threads.isEmpty(), is(false));
+        for (Thread thread : threads) {
+            thread.join(5000);
+            assertThat(thread.isAlive(), is(false));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.NotFoundException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.jenkinsci.plugins.bitbucket.server.api.model.builder.CommitBuilder.aCommit;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketServerAsyncClientTest {
+
+    @Mock
+    private BitbucketServerAPI clientMock;
+
+    private ListeningExecutorService executor;
+    private BitbucketServerAsyncClient asyncClient;
+
+    @Before
+    public void setup() {
+        ThreadFactory threadFactory = new NamingThreadFactory(Executors.defaultThreadFactory(), "BitbucketServerAsyncClient test");
+        executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1, threadFactory));
+        asyncClient = new BitbucketServerAsyncClient(clientMock, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void getCommit_completesWithResponse() throws Exception {
+        Commit commit = aCommit().id("123abc").build();
+        when(clientMock.getCommit("PROJECT", "repo", "123abc")).thenReturn(commit);
+
+        assertThat(asyncClient.getCommit("PROJECT", "repo", "123abc").get(5, TimeUnit.SECONDS), sameInstance(commit));
+    }
+
+    @Test
+    public void browse_failsWithRequestException() throws Exception {
+        NotFoundException notFound = new NotFoundException();
+        when(clientMock.browse("PROJECT", "repo", "Jenkinsfile", "master", true)).thenThrow(notFound);
+
+        try {
+            asyncClient.browse("PROJECT", "repo", "Jenkinsfile", "master", true).get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), sameInstance((Throwable) notFound));
+        }
+    }
+
+    @Test
+    public void requests_runOnServerExecutor() throws Exception {
+        when(clientMock.getCommit("PROJECT", "repo", "123abc")).thenAnswer(new Answer<Commit>() {
+            @Override
+            public Commit answer(InvocationOnMock invocation) {
+                return aCommit().id(Thread.currentThread().getName()).build();
+            }
+        });
+
+        Commit commit = asyncClient.getCommit("PROJECT", "repo", "123abc").get(5, TimeUnit.SECONDS);
+
+        assertThat(commit.getId().startsWith("BitbucketServerAsyncClient test"), is(true));
+    }
+}
@@ -0,0 +1,152 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import hudson.model.ItemGroup;
+import jenkins.scm.api.SCMSourceOwner;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Robin Müller
+ */
+public class BitbucketServerClientServiceTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+
+    @ClassRule
+    public static JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void submitProbe_runsProbesOfEachScanInParallel() throws Exception {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        // the first configuration of the server probes one branch at a time, it does not bound the probes of others
+        service.submitProbe(aBitbucketClientConfiguration().baseUrl(BASE_URL).parallelProbes(1).build(), new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return true;
+            }
+        }).get();
+        BitbucketClientConfiguration parallelConfiguration = aBitbucketClientConfiguration().baseUrl(BASE_URL).parallelProbes(2).build();
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+
+        List<Future<Boolean>> probes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            probes.add(service.submitProbe(parallelConfiguration, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws InterruptedException {
+                    bothRunning.countDown();
+                    return bothRunning.await(5, TimeUnit.SECONDS);
+                }
+            }));
+        }
+
+        for (Future<Boolean> probe : probes) {
+            assertThat(probe.get(), is(true));
+        }
+    }
+
+    @Test
+    public void getStatistics_sharedByServer() {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().baseUrl(BASE_URL).credentialsId("scan").build();
+        BitbucketClientConfiguration otherSettings = aBitbucketClientConfiguration().baseUrl(BASE_URL).credentialsId("other").parallelProbes(4).build();
+
+        assertThat(service.getStatistics(clientConfiguration), sameInstance(service.getStatistics(otherSettings)));
+    }
+
+    @Test
+    public void limits_sharedByServer() {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        String baseUrl = BASE_URL + "/limits";
+        BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().baseUrl(baseUrl).requestsPerSecond(5.0).build();
+        BitbucketClientConfiguration otherSettings = aBitbucketClientConfiguration().baseUrl(baseUrl).requestsPerSecond(50.0).maxConcurrentRequests(2).build();
+
+        assertThat(service.getRequestsPerSecond(clientConfiguration), is(5.0));
+        assertThat(service.getRequestsPerSecond(otherSettings), is(5.0));
+        service.setRequestsPerSecond(otherSettings, 10.0);
+        assertThat(service.getRequestsPerSecond(clientConfiguration), is(10.0));
+    }
+
+    @Test
+    public void invalidateCredentials_onlyOwnersInFolder() throws IOException {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().baseUrl(BASE_URL).credentialsId("scan").build();
+        MockFolder folder = jenkins.createFolder("folder");
+        SCMSourceOwner ownerInFolder = owner(folder);
+        SCMSourceOwner ownerInSubFolder = owner(folder.createProject(MockFolder.class, "subfolder"));
+        SCMSourceOwner otherOwner = owner(jenkins.createFolder("other"));
+        for (SCMSourceOwner owner : Arrays.asList(ownerInFolder, ownerInSubFolder, otherOwner)) {
+            service.getClient(clientConfiguration, owner);
+        }
+
+        service.invalidateCredentials(folder);
+
+        assertThat(service.hasCredentials(ownerInFolder), is(false));
+        assertThat(service.hasCredentials(ownerInSubFolder), is(false));
+        assertThat(service.hasCredentials(otherOwner), is(true));
+    }
+
+    @Test
+    public void shutdown_closesPooledConnections() throws InterruptedException {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        String baseUrl = BASE_URL + "/pooled";
+        BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().baseUrl(baseUrl).pooledConnections(true).build();
+        BitbucketServerAPI client = service.getClient(clientConfiguration, null);
+        List<Thread> evictors = BitbucketConnectionPoolsTest.evictorThreads(baseUrl);
+
+        BitbucketServerClientService.shutdown();
+
+        BitbucketConnectionPoolsTest.assertStopped(evictors);
+        assertThat(service.getClient(clientConfiguration, null), not(sameInstance(client)));
+        BitbucketServerClientService.shutdown();
+    }
+
+    @Test
+    public void shutdown_stopsServerThreads() throws Exception {
+        BitbucketServerClientService service = BitbucketServerClientService.instance();
+        BitbucketClientConfiguration clientConfiguration = aBitbucketClientConfiguration().baseUrl(BASE_URL + "/threads").build();
+        Thread probeThread = service.submitProbe(clientConfiguration, new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }).get();
+
+        BitbucketServerClientService.shutdown();
+
+        BitbucketConnectionPoolsTest.assertStopped(Collections.singletonList(probeThread));
+        assertThat(service.submitProbe(clientConfiguration, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return true;
+            }
+        }).get(), is(true));
+        BitbucketServerClientService.shutdown();
+    }
+
+    private static SCMSourceOwner owner(ItemGroup parent) {
+        SCMSourceOwner owner = mock(SCMSourceOwner.class);
+        doReturn(parent).when(owner).getParent();
+        return owner;
+    }
+}
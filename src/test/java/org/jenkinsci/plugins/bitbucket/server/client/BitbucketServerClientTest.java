@@ -0,0 +1,340 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BuildStatus;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Commit;
+import org.jenkinsci.plugins.bitbucket.server.api.model.DirectoryListing;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.glassfish.jersey.client.ClientProperties.SUPPRESS_HTTP_COMPLIANCE_VALIDATION;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.lessThan;
+import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Robin Müller
+ */
+public class BitbucketServerClientTest {
+
+    private StubResponseFilter server;
+    private ServerRateLimiter rateLimiter;
+    private BitbucketClientStatistics statistics;
+    private Bulkhead bulkhead;
+    private BitbucketServerClient client;
+
+    @Before
+    public void setUp() {
+        server = new StubResponseFilter();
+        rateLimiter = new ServerRateLimiter(0);
+        statistics = new BitbucketClientStatistics();
+        bulkhead = new Bulkhead(4, statistics);
+        client = newClient(aBitbucketClientConfiguration().baseUrl("http://localhost:7990/bitbucket").build());
+    }
+
+    @Test
+    public void getBranches() {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[{\"id\":\"refs/heads/master\",\"displayId\":\"master\"}]}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        Page<Branch> branches = client.getBranches("PROJECT", "repo", null, 25, 50);
+
+        assertThat(server.method, is("GET"));
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/branches?start=25&limit=50"));
+        assertThat(branches.getValues().get(0).getDisplayId(), is("master"));
+    }
+
+    @Test
+    public void getBranches_firstPage() {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[]}", MediaType.APPLICATION_JSON_TYPE).build());
+
+        client.getBranches("PROJECT", "repo", null, null, null);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/branches"));
+    }
+
+    @Test
+    public void getBranches_filterText() {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[]}", MediaType.APPLICATION_JSON_TYPE).build());
+
+        client.getBranches("PROJECT", "repo", "release", null, null);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/branches?filterText=release"));
+    }
+
+    @Test
+    public void getBranches_details() {
+        client = newClient(aBitbucketClientConfiguration().baseUrl("http://localhost:7990/bitbucket").branchDetails(true).build());
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[{\"id\":\"refs/heads/master\",\"displayId\":\"master\",\"metadata\":{"
+                                   + "\"com.atlassian.bitbucket.server.bitbucket-jira:branch-list-jira-issues\":[],"
+                                   + "\"com.atlassian.bitbucket.server.bitbucket-branch:latest-commit-metadata\":{\"id\":\"123abc\",\"authorTimestamp\":1500000000000}}}]}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        Page<Branch> branches = client.getBranches("PROJECT", "repo", null, null, null);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/branches?details=true"));
+        assertThat(branches.getValues().get(0).getAuthorTimestamp(), is(1500000000000L));
+    }
+
+    @Test
+    public void getBranches_nullMetadata() {
+        client = newClient(aBitbucketClientConfiguration().baseUrl("http://localhost:7990/bitbucket").branchDetails(true).build());
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[{\"id\":\"refs/heads/master\",\"displayId\":\"master\",\"metadata\":null}]}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        Page<Branch> branches = client.getBranches("PROJECT", "repo", null, null, null);
+
+        assertThat(branches.getValues().get(0).getDisplayId(), is("master"));
+        assertThat(branches.getValues().get(0).getAuthorTimestamp(), nullValue());
+    }
+
+    @Test
+    public void browse() {
+        server.respond(Response.ok("{\"type\":\"FILE\"}", MediaType.APPLICATION_JSON_TYPE).build());
+
+        BrowsePath browsePath = client.browse("PROJECT", "repo", "Jenkinsfile", "master", true);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/browse/Jenkinsfile?at=master&type=true"));
+        assertThat(browsePath.getType(), is(BrowsePath.Type.FILE));
+    }
+
+    @Test
+    public void browseDirectory() {
+        server.respond(Response.ok("{\"path\":{\"components\":[\".ci\"],\"name\":\".ci\"},\"children\":{\"isLastPage\":true,\"values\":["
+                                   + "{\"path\":{\"components\":[\"config.yml\"],\"name\":\"config.yml\",\"toString\":\"config.yml\"},\"type\":\"FILE\"}]}}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        DirectoryListing listing = client.browseDirectory("PROJECT", "repo", ".ci", "123abc", null, 1000);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/browse/.ci?at=123abc&limit=1000"));
+        assertThat(listing.getChildren().getValues().get(0).getName(), is("config.yml"));
+        assertThat(listing.getChildren().getValues().get(0).getType(), is(BrowsePath.Type.FILE));
+    }
+
+    @Test
+    public void browseDirectory_nestedPath() {
+        server.respond(Response.ok("{\"path\":{\"components\":[\".ci\",\"jobs\"],\"name\":\"jobs\"},\"children\":{\"isLastPage\":true,\"values\":[]}}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        client.browseDirectory("PROJECT", "repo", ".ci/jobs", "123abc", null, 1000);
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/browse/.ci/jobs?at=123abc&limit=1000"));
+    }
+
+    @Test
+    public void getRawContent() throws IOException {
+        server.respond(Response.ok("node {}", MediaType.TEXT_PLAIN_TYPE).build());
+
+        InputStream content = client.getRawContent("PROJECT", "repo", "ci/Jenkinsfile", "123abc");
+
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/raw/ci/Jenkinsfile?at=123abc"));
+        assertThat(IOUtils.toString(content, "UTF-8"), is("node {}"));
+    }
+
+    @Test
+    public void getRawContent_holdsSlotUntilClosed() throws IOException {
+        server.respond(Response.ok("node {}", MediaType.TEXT_PLAIN_TYPE).build());
+
+        InputStream content = client.getRawContent("PROJECT", "repo", "Jenkinsfile", "123abc");
+
+        assertThat(bulkhead.getInFlightRequests(), is(1));
+        content.close();
+        content.close();
+        assertThat(bulkhead.getInFlightRequests(), is(0));
+    }
+
+    @Test
+    public void streamBranches_holdsSlotUntilClosed() {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[{\"id\":\"refs/heads/master\",\"displayId\":\"master\"}]}",
+                                   MediaType.APPLICATION_JSON_TYPE).build());
+
+        try (StreamingPage<Branch> branches = client.streamBranches("PROJECT", "repo", null, null, null)) {
+            assertThat(bulkhead.getInFlightRequests(), is(1));
+        }
+        assertThat(bulkhead.getInFlightRequests(), is(0));
+        client.getBranches("PROJECT", "repo", null, null, null);
+        assertThat(bulkhead.getInFlightRequests(), is(0));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void browse_notFound() {
+        server.respond(Response.status(Response.Status.NOT_FOUND).build());
+
+        client.browse("PROJECT", "repo", "Jenkinsfile", "master", true);
+    }
+
+    @Test
+    public void updateBuildStatus() {
+        server.respond(Response.noContent().build());
+
+        client.updateBuildStatus("8d51122def5632836d1cb1026e879069e10a1e13", new BuildStatus());
+
+        assertThat(server.method, is("POST"));
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/build-status/1.0/commits/8d51122def5632836d1cb1026e879069e10a1e13"));
+    }
+
+    @Test
+    public void disableHook() {
+        server.respond(Response.ok("{}", MediaType.APPLICATION_JSON_TYPE).build());
+
+        client.disableHook("PROJECT", "repo", "com.example.hook");
+
+        assertThat(server.method, is("DELETE"));
+        assertThat(server.uri, is("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/settings/hooks/com.example.hook/enabled"));
+    }
+
+    @Test
+    public void expiredDeadline_namesRequest() throws InterruptedException {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[]}", MediaType.APPLICATION_JSON_TYPE).build());
+
+        try (RequestDeadline deadline = RequestDeadline.start("scan of PROJECT/repo", 1, TimeUnit.MILLISECONDS)) {
+            Thread.sleep(5);
+            client.getBranches("PROJECT", "repo", null, null, null);
+            fail("DeadlineExceededException expected");
+        } catch (DeadlineExceededException e) {
+            assertThat(e.getRequest(), is("getBranches (GET /bitbucket/rest/api/1.0/projects/PROJECT/repos/repo/branches)"));
+            assertThat(server.uri, nullValue());
+        }
+        assertThat(RequestDeadline.current(), nullValue());
+    }
+
+    @Test
+    public void pausedServer_failsFastWithinDeadline() {
+        server.respond(Response.ok("{\"isLastPage\":true,\"values\":[]}", MediaType.APPLICATION_JSON_TYPE).build());
+        rateLimiter.pause(TimeUnit.MINUTES.toMillis(1));
+
+        long start = System.currentTimeMillis();
+        try (RequestDeadline deadline = RequestDeadline.start("scan of PROJECT/repo", 10, TimeUnit.SECONDS)) {
+            client.getBranches("PROJECT", "repo", null, null, null);
+            fail("DeadlineExceededException expected");
+        } catch (DeadlineExceededException e) {
+            assertThat(System.currentTimeMillis() - start, lessThan(TimeUnit.SECONDS.toMillis(10)));
+            assertThat(server.uri, nullValue());
+        }
+    }
+
+    @Test
+    public void coalescedCallers_decodeTheirOwnObjects() throws Exception {
+        server.respond(Response.ok("{\"id\":\"123abc\"}", MediaType.APPLICATION_JSON_TYPE).build());
+        server.blocked = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Commit> getCommit = new Callable<Commit>() {
+                @Override
+                public Commit call() {
+                    return client.getCommit("PROJECT", "repo", "123abc");
+                }
+            };
+            Future<Commit> first = executor.submit(getCommit);
+            while (server.uri == null) {
+                Thread.sleep(1);
+            }
+            Future<Commit> second = executor.submit(getCommit);
+            while (!statistics.getCoalescedRequests().containsKey("getCommit")) {
+                Thread.sleep(1);
+            }
+            server.blocked.countDown();
+
+            Commit firstCommit = first.get(5, TimeUnit.SECONDS);
+            Commit secondCommit = second.get(5, TimeUnit.SECONDS);
+            assertThat(secondCommit, not(sameInstance(firstCommit)));
+            assertThat(secondCommit.getId(), is("123abc"));
+            assertThat(firstCommit.getId(), is("123abc"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void streamBranches_replayedFromResponseCache() {
+        server = new StubResponseFilter() {
+            @Override
+            public void filter(ClientRequestContext requestContext) {
+                if ("\"1\"".equals(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH))) {
+                    requestContext.abortWith(Response.notModified().build());
+                } else {
+                    requestContext.abortWith(Response.ok("{\"isLastPage\":true,\"values\":[{\"id\":\"refs/heads/master\",\"displayId\":\"master\"}]}",
+                                                         MediaType.APPLICATION_JSON_TYPE).tag("1").build());
+                }
+            }
+        };
+        client = newClient(aBitbucketClientConfiguration().baseUrl("http://localhost:7990/bitbucket").build(),
+                           new ResponseCacheFilter(1024 * 1024, statistics));
+
+        for (int i = 0; i < 2; i++) {
+            try (StreamingPage<Branch> branches = client.streamBranches("PROJECT", "repo", null, null, null)) {
+                assertThat(branches.iterator().next().getDisplayId(), is("master"));
+            }
+        }
+        assertThat(statistics.getResponseCacheMisses(), is(1L));
+        assertThat(statistics.getResponseCacheHits(), is(1L));
+    }
+
+    private BitbucketServerClient newClient(BitbucketClientConfiguration clientConfiguration, Object... filters) {
+        ClientBuilder clientBuilder = ClientBuilder.newBuilder().register(server);
+        for (Object filter : filters) {
+            clientBuilder.register(filter);
+        }
+        return new BitbucketServerClient(clientBuilder
+                                                 .build()
+                                                 .property(SUPPRESS_HTTP_COMPLIANCE_VALIDATION, true)
+                                                 .target("http://localhost:7990/bitbucket"),
+                                         clientConfiguration,
+                                         new RequestExecutor(new ServerRateLimiter(0),
+                                                             new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS),
+                                                             0, 0, 1),
+                                         rateLimiter,
+                                         bulkhead,
+                                         new SingleFlight(statistics));
+    }
+
+    private static class StubResponseFilter implements ClientRequestFilter {
+
+        private Response response;
+        private CountDownLatch blocked;
+        private volatile String method;
+        private volatile String uri;
+
+        private void respond(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public void filter(ClientRequestContext requestContext) {
+            method = requestContext.getMethod();
+            uri = requestContext.getUri().toString();
+            if (blocked != null) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            requestContext.abortWith(response);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Robin Müller
+ */
+public class BulkheadTest {
+
+    @Test
+    public void interactiveRequest_getsFreeSlotFirst() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead(1, new BitbucketClientStatistics());
+        bulkhead.acquire(RequestPriority.INTERACTIVE, Long.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> background = executor.submit(acquire(bulkhead, RequestPriority.BACKGROUND));
+            while (bulkhead.getQueueDepth(RequestPriority.BACKGROUND) == 0) {
+                Thread.sleep(1);
+            }
+            Future<Boolean> interactive = executor.submit(acquire(bulkhead, RequestPriority.INTERACTIVE));
+            while (bulkhead.getQueueDepth(RequestPriority.INTERACTIVE) == 0) {
+                Thread.sleep(1);
+            }
+
+            bulkhead.release();
+
+            assertThat(interactive.get(5, TimeUnit.SECONDS), is(true));
+            assertThat(background.isDone(), is(false));
+            assertThat(bulkhead.getQueueDepth(RequestPriority.BACKGROUND), is(1));
+
+            bulkhead.release();
+
+            assertThat(background.get(5, TimeUnit.SECONDS), is(true));
+            assertThat(bulkhead.getInFlightRequests(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void noFreeSlot_timesOut() throws Exception {
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+        Bulkhead bulkhead = new Bulkhead(1, statistics);
+        bulkhead.acquire(RequestPriority.INTERACTIVE, Long.MAX_VALUE);
+
+        assertThat(bulkhead.acquire(RequestPriority.BACKGROUND, 10), is(false));
+        assertThat(bulkhead.getQueueDepth(RequestPriority.BACKGROUND), is(0));
+        assertThat(statistics.getQueuedRequests(), is(Collections.singletonMap("BACKGROUND", 1L)));
+    }
+
+    @Test
+    public void noLimit() throws Exception {
+        Bulkhead bulkhead = new Bulkhead(0, new BitbucketClientStatistics());
+
+        assertThat(bulkhead.acquire(RequestPriority.BACKGROUND, 0), is(true));
+        assertThat(bulkhead.acquire(RequestPriority.BACKGROUND, 0), is(true));
+    }
+
+    private Callable<Boolean> acquire(final Bulkhead bulkhead, final RequestPriority priority) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return bulkhead.acquire(priority, Long.MAX_VALUE);
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.glassfish.jersey.client.proxy.WebResourceFactory;
+import org.jenkinsci.plugins.bitbucket.server.api.BitbucketServerAPI;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.jenkinsci.plugins.bitbucket.server.api.model.BrowsePath;
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.glassfish.jersey.client.ClientProperties.SUPPRESS_HTTP_COMPLIANCE_VALIDATION;
+import static org.jenkinsci.plugins.bitbucket.server.client.builder.BitbucketClientConfigurationBuilder.aBitbucketClientConfiguration;
+
+/**
+ * Compares the typed {@link BitbucketServerClient} with the former dispatch through a JDK proxy and Jersey's
+ * {@link WebResourceFactory}. The responses are served by a request filter, so only the client side is measured.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.plugins.bitbucket.server.client.ClientDispatchBenchmark}.
+ *
+ * @author Robin Müller
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientDispatchBenchmark {
+
+    private static final String BRANCHES = "{\"size\":1,\"limit\":25,\"isLastPage\":true,\"start\":0,\"values\":["
+                                           + "{\"id\":\"refs/heads/master\",\"displayId\":\"master\",\"latestCommit\":\"8d51122def5632836d1cb1026e879069e10a1e13\"}]}";
+    private static final String BROWSE_PATH = "{\"type\":\"FILE\"}";
+
+    private BitbucketServerAPI typedClient;
+    private BitbucketServerAPI proxyClient;
+
+    @Setup
+    public void setUp() {
+        WebTarget target = ClientBuilder.newBuilder()
+                .register(new StubResponseFilter())
+                .build()
+                .property(SUPPRESS_HTTP_COMPLIANCE_VALIDATION, true)
+                .target("http://localhost:7990");
+        typedClient = new BitbucketServerClient(target,
+                                                aBitbucketClientConfiguration().baseUrl("http://localhost:7990").build(),
+                                                newRequestExecutor(),
+                                                new ServerRateLimiter(0),
+                                                new Bulkhead(0, new BitbucketClientStatistics()),
+                                                new SingleFlight(new BitbucketClientStatistics()));
+        proxyClient = (BitbucketServerAPI) Proxy.newProxyInstance(BitbucketServerAPI.class.getClassLoader(),
+                                                                  new Class[]{BitbucketServerAPI.class},
+                                                                  new ProxyInvocationHandler(WebResourceFactory.newResource(BitbucketServerAPI.class, target),
+                                                                                             newRequestExecutor()));
+    }
+
+    @Benchmark
+    public Page<Branch> getBranches_typed() {
+        return typedClient.getBranches("PROJECT", "repo", null, 0, 25);
+    }
+
+    @Benchmark
+    public Page<Branch> getBranches_proxy() {
+        return proxyClient.getBranches("PROJECT", "repo", null, 0, 25);
+    }
+
+    @Benchmark
+    public BrowsePath browse_typed() {
+        return typedClient.browse("PROJECT", "repo", "Jenkinsfile", "8d51122def5632836d1cb1026e879069e10a1e13", true);
+    }
+
+    @Benchmark
+    public BrowsePath browse_proxy() {
+        return proxyClient.browse("PROJECT", "repo", "Jenkinsfile", "8d51122def5632836d1cb1026e879069e10a1e13", true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                           .include(ClientDispatchBenchmark.class.getSimpleName())
+                           .forks(1)
+                           .warmupIterations(5)
+                           .measurementIterations(10)
+                           .build()).run();
+    }
+
+    private static RequestExecutor newRequestExecutor() {
+        return new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("benchmark", 0, 0, TimeUnit.SECONDS), 0, 0, 0);
+    }
+
+    private static class StubResponseFilter implements ClientRequestFilter {
+
+        @Override
+        public void filter(ClientRequestContext requestContext) {
+            String body = requestContext.getUri().getPath().endsWith("/branches") ? BRANCHES : BROWSE_PATH;
+            requestContext.abortWith(Response.ok(body, MediaType.APPLICATION_JSON_TYPE).build());
+        }
+    }
+
+    /**
+     * The invocation handler the clients used before the typed client was introduced.
+     */
+    private static class ProxyInvocationHandler implements InvocationHandler {
+
+        private final BitbucketServerAPI client;
+        private final RequestExecutor requestExecutor;
+
+        ProxyInvocationHandler(BitbucketServerAPI client, RequestExecutor requestExecutor) {
+            this.client = client;
+            this.requestExecutor = requestExecutor;
+        }
+
+        @Override
+        public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+            ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(ClientDispatchBenchmark.class.getClassLoader());
+                return requestExecutor.execute(method.isAnnotationPresent(GET.class), new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return method.invoke(client, args);
+                    }
+                });
+            } finally {
+                Thread.currentThread().setContextClassLoader(currentClassLoader);
+            }
+        }
+    }
+}
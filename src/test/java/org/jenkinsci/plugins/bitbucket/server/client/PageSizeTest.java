@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.jenkinsci.plugins.bitbucket.server.api.model.Page;
+import org.jenkinsci.plugins.bitbucket.server.api.model.PageRequest;
+import org.jenkinsci.plugins.bitbucket.server.api.model.builder.PageBuilder;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Robin Müller
+ */
+public class PageSizeTest {
+
+    @Test
+    public void serverDefault() {
+        assertThat(PageSize.SERVER_DEFAULT.nextPage(null, 0), nullValue());
+
+        PageRequest next = PageSize.SERVER_DEFAULT.nextPage(page(0, 25), 0);
+
+        assertThat(next.getStart(), is(25));
+        assertThat(next.getLimit(), is(25));
+    }
+
+    @Test
+    public void fixedSize_isLimitedToMaximum() {
+        PageRequest first = new PageSize(5000, 1000, 0).nextPage(null, 0);
+
+        assertThat(first.getStart(), nullValue());
+        assertThat(first.getLimit(), is(1000));
+    }
+
+    @Test
+    public void adaptive_growsWhileResponsesAreFast() {
+        PageSize pageSize = new PageSize(0, 1000, 500);
+
+        assertThat(pageSize.nextPage(page(0, 25), TimeUnit.MILLISECONDS.toNanos(100)).getLimit(), is(50));
+        assertThat(pageSize.nextPage(page(500, 800), TimeUnit.MILLISECONDS.toNanos(100)).getLimit(), is(1000));
+    }
+
+    @Test
+    public void adaptive_shrinksSlowResponses() {
+        PageSize pageSize = new PageSize(100, 1000, 500);
+
+        PageRequest next = pageSize.nextPage(page(0, 400), TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(next.getStart(), is(400));
+        assertThat(next.getLimit(), is(200));
+        assertThat(pageSize.nextPage(page(400, 100), TimeUnit.SECONDS.toNanos(1)).getLimit(), is(100));
+    }
+
+    private Page<String> page(int start, int limit) {
+        return PageBuilder.<String>aPage()
+                .start(start)
+                .limit(limit)
+                .isLastPage(false)
+                .build();
+    }
+}
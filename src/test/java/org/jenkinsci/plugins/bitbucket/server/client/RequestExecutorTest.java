@@ -0,0 +1,300 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import org.junit.Test;
+
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.net.SocketException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Robin Müller
+ */
+public class RequestExecutorTest {
+
+    @Test
+    public void idempotentRequest_isRetried() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 3, 1);
+        FailingRequest request = new FailingRequest(2);
+
+        assertThat(executor.execute(true, request), is("result"));
+        assertThat(request.calls.get(), is(3));
+    }
+
+    @Test
+    public void nonIdempotentRequest_isNotRetried() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 3, 1);
+        FailingRequest request = new FailingRequest(2);
+
+        try {
+            executor.execute(false, request);
+            fail("ProcessingException expected");
+        } catch (ProcessingException e) {
+            assertThat(request.calls.get(), is(1));
+        }
+    }
+
+    @Test
+    public void clientError_isNotRetried() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 3, 1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        try {
+            executor.execute(true, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    calls.incrementAndGet();
+                    throw new NotFoundException();
+                }
+            });
+            fail("NotFoundException expected");
+        } catch (NotFoundException e) {
+            assertThat(calls.get(), is(1));
+        }
+    }
+
+    @Test
+    public void serviceUnavailable_isRetried() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 3, 1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.execute(true, new Callable<String>() {
+            @Override
+            public String call() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new ServiceUnavailableException();
+                }
+                return "result";
+            }
+        });
+
+        assertThat(result, is("result"));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void droppedSession_isSentAgain() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 0, 1, true);
+        final AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.execute(true, new Callable<String>() {
+            @Override
+            public String call() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED)
+                                                             .header(SessionCookieFilter.SESSION_DROPPED_HEADER, "true")
+                                                             .build());
+                }
+                return "result";
+            }
+        });
+
+        assertThat(result, is("result"));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void failedLogin_isNotSentAgain() throws Exception {
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), new CircuitBreaker("test", 0, 0, TimeUnit.SECONDS), 0, 0, 1, true);
+        final AtomicInteger calls = new AtomicInteger();
+
+        try {
+            executor.execute(true, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    calls.incrementAndGet();
+                    throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+                }
+            });
+            fail("NotAuthorizedException expected");
+        } catch (NotAuthorizedException e) {
+            assertThat(calls.get(), is(1));
+        }
+    }
+
+    @Test
+    public void openCircuit_failsFast() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 2, 1, TimeUnit.MINUTES);
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 0, 1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.execute(true, new FailingRequest(1));
+            } catch (ProcessingException e) {
+                // expected
+            }
+        }
+        FailingRequest request = new FailingRequest(0);
+
+        try {
+            executor.execute(true, request);
+            fail("ProcessingException expected");
+        } catch (ProcessingException e) {
+            assertThat(request.calls.get(), is(0));
+            assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        }
+    }
+
+    @Test
+    public void halfOpenCircuit_closesOnSuccess() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0, TimeUnit.MILLISECONDS);
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 0, 1);
+        try {
+            executor.execute(true, new FailingRequest(1));
+        } catch (ProcessingException e) {
+            // expected
+        }
+
+        assertThat(executor.execute(true, new FailingRequest(0)), is("result"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void mappingError_isNotRetried() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 1, TimeUnit.MINUTES);
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 3, 1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        try {
+            executor.execute(true, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    calls.incrementAndGet();
+                    throw new ProcessingException(new JsonMappingException("Unexpected token"));
+                }
+            });
+            fail("ProcessingException expected");
+        } catch (ProcessingException e) {
+            assertThat(calls.get(), is(1));
+            assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        }
+    }
+
+    @Test
+    public void halfOpenCircuit_letsOneTrialThrough() throws Exception {
+        CircuitBreaker circuitBreaker = openCircuit();
+        final RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 0, 1);
+        final FailingRequest concurrentRequest = new FailingRequest(0);
+
+        String result = executor.execute(true, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    executor.execute(true, concurrentRequest);
+                    fail("ProcessingException expected");
+                } catch (ProcessingException e) {
+                    // expected
+                }
+                return "result";
+            }
+        });
+
+        assertThat(result, is("result"));
+        assertThat(concurrentRequest.calls.get(), is(0));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void halfOpenCircuit_closesOnRateLimitedTrial() throws Exception {
+        CircuitBreaker circuitBreaker = openCircuit();
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 1, 0, 1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        String result = executor.execute(true, new Callable<String>() {
+            @Override
+            public String call() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new WebApplicationException(Response.status(ServerRateLimiter.TOO_MANY_REQUESTS)
+                                                              .header(HttpHeaders.RETRY_AFTER, "0")
+                                                              .build());
+                }
+                return "result";
+            }
+        });
+
+        assertThat(result, is("result"));
+        assertThat(calls.get(), is(2));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void halfOpenCircuit_releasesTrialOnDeadline() throws Exception {
+        CircuitBreaker circuitBreaker = openCircuit();
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 0, 1);
+        try {
+            executor.execute(true, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw new DeadlineExceededException(RequestDeadline.of("test", 1, TimeUnit.MILLISECONDS), "GET test", null);
+                }
+            });
+            fail("DeadlineExceededException expected");
+        } catch (DeadlineExceededException e) {
+            assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        }
+
+        assertThat(executor.execute(true, new FailingRequest(0)), is("result"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void halfOpenCircuit_releasesTrialOnInterrupt() throws Exception {
+        CircuitBreaker circuitBreaker = openCircuit();
+        RequestExecutor executor = new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 3, 1);
+        try {
+            executor.execute(true, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessingException(new InterruptedException());
+                }
+            });
+            fail("ProcessingException expected");
+        } catch (ProcessingException e) {
+            assertThat(Thread.interrupted(), is(true));
+            assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        }
+
+        assertThat(executor.execute(true, new FailingRequest(0)), is("result"));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    private static CircuitBreaker openCircuit() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0, TimeUnit.MILLISECONDS);
+        try {
+            new RequestExecutor(new ServerRateLimiter(0), circuitBreaker, 0, 0, 1).execute(true, new FailingRequest(1));
+        } catch (ProcessingException e) {
+            // expected
+        }
+        return circuitBreaker;
+    }
+
+    private static class FailingRequest implements Callable<String> {
+
+        private final int failures;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private FailingRequest(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public String call() {
+            if (calls.incrementAndGet() <= failures) {
+                throw new ProcessingException("Connection reset", new SocketException("Connection reset"));
+            }
+            return "result";
+        }
+    }
+}
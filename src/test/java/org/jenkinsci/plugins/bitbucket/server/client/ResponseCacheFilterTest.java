@@ -0,0 +1,152 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+public class ResponseCacheFilterTest {
+
+    private static final URI REQUEST_URI = URI.create("https://bitbucket/rest/api/1.0/projects/PROJECT/repos");
+    private static final String BODY = "{\"isLastPage\":true}";
+
+    @Test
+    public void firstRequest_isNotConditional() throws IOException {
+        ResponseCacheFilter filter = new ResponseCacheFilter(1024, new BitbucketClientStatistics());
+        ClientRequestContext request = mockRequest();
+
+        filter.filter(request);
+
+        assertThat(request.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH), is(nullValue()));
+    }
+
+    @Test
+    public void cachedResponse_isRevalidated() throws IOException {
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+        ResponseCacheFilter filter = new ResponseCacheFilter(1024, statistics);
+        ClientRequestContext firstRequest = mockRequest();
+        filter.filter(firstRequest);
+        filter.filter(firstRequest, mockResponse(200, "\"abc\""));
+
+        ClientRequestContext secondRequest = mockRequest();
+        filter.filter(secondRequest);
+
+        assertThat(secondRequest.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH), is((Object) "\"abc\""));
+        assertThat(statistics.getResponseCacheMisses(), is(1L));
+    }
+
+    @Test
+    public void notModified_returnsCachedBody() throws IOException {
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+        ResponseCacheFilter filter = new ResponseCacheFilter(1024, statistics);
+        ClientRequestContext firstRequest = mockRequest();
+        filter.filter(firstRequest);
+        filter.filter(firstRequest, mockResponse(200, "\"abc\""));
+
+        ClientRequestContext secondRequest = mockRequest();
+        ArgumentCaptor<Object> cachedResponse = ArgumentCaptor.forClass(Object.class);
+        filter.filter(secondRequest);
+        verify(secondRequest).setProperty(anyString(), cachedResponse.capture());
+        when(secondRequest.getProperty(anyString())).thenReturn(cachedResponse.getValue());
+        ClientResponseContext notModified = mockResponse(304, "\"abc\"");
+        filter.filter(secondRequest, notModified);
+
+        ArgumentCaptor<InputStream> entityStream = ArgumentCaptor.forClass(InputStream.class);
+        verify(notModified).setStatus(200);
+        verify(notModified).setEntityStream(entityStream.capture());
+        assertThat(IOUtils.toString(entityStream.getValue()), is(BODY));
+        assertThat(statistics.getResponseCacheHits(), is(1L));
+    }
+
+    @Test
+    public void responseWithoutValidator_isNotCached() throws IOException {
+        ResponseCacheFilter filter = new ResponseCacheFilter(1024, new BitbucketClientStatistics());
+        ClientRequestContext firstRequest = mockRequest();
+        filter.filter(firstRequest);
+        ClientResponseContext response = mockResponse(200, null);
+        filter.filter(firstRequest, response);
+
+        ClientRequestContext secondRequest = mockRequest();
+        filter.filter(secondRequest);
+
+        verify(response, never()).setEntityStream(any(InputStream.class));
+        assertThat(secondRequest.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH), is(nullValue()));
+    }
+
+    @Test
+    public void largeResponse_isPassedOnWithoutCaching() throws IOException {
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+        // bodies of up to 8 bytes are cached
+        ResponseCacheFilter filter = new ResponseCacheFilter(64, statistics);
+        ClientRequestContext firstRequest = mockRequest();
+        filter.filter(firstRequest);
+        ClientResponseContext response = mockResponse(200, "\"abc\"");
+        filter.filter(firstRequest, response);
+
+        ArgumentCaptor<InputStream> entityStream = ArgumentCaptor.forClass(InputStream.class);
+        verify(response).setEntityStream(entityStream.capture());
+        assertThat(IOUtils.toString(entityStream.getValue()), is(BODY));
+        ClientRequestContext secondRequest = mockRequest();
+        filter.filter(secondRequest);
+        assertThat(secondRequest.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH), is(nullValue()));
+        assertThat(statistics.getResponseCacheMisses(), is(0L));
+    }
+
+    @Test
+    public void bypassedRequest_isNotCached() throws IOException {
+        ResponseCacheFilter filter = new ResponseCacheFilter(1024, new BitbucketClientStatistics());
+        ClientRequestContext firstRequest = mockRequest();
+        when(firstRequest.getProperty(ResponseCacheFilter.BYPASS_PROPERTY)).thenReturn(true);
+        filter.filter(firstRequest);
+        ClientResponseContext response = mockResponse(200, "\"abc\"");
+        filter.filter(firstRequest, response);
+
+        ClientRequestContext secondRequest = mockRequest();
+        filter.filter(secondRequest);
+
+        verify(response, never()).getEntityStream();
+        assertThat(secondRequest.getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH), is(nullValue()));
+    }
+
+    private ClientRequestContext mockRequest() {
+        ClientRequestContext request = mock(ClientRequestContext.class);
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        when(request.getMethod()).thenReturn(HttpMethod.GET);
+        when(request.getUri()).thenReturn(REQUEST_URI);
+        when(request.getHeaders()).thenReturn(headers);
+        return request;
+    }
+
+    private ClientResponseContext mockResponse(int status, String eTag) {
+        ClientResponseContext response = mock(ClientResponseContext.class);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getHeaders()).thenReturn(new MultivaluedHashMap<String, String>());
+        when(response.getHeaderString(HttpHeaders.ETAG)).thenReturn(eTag);
+        when(response.getHeaderString(HttpHeaders.CONTENT_TYPE)).thenReturn("application/json");
+        when(response.getEntityStream()).thenReturn(status == 200 ? new ByteArrayInputStream(BODY.getBytes()) : null);
+        return response;
+    }
+}
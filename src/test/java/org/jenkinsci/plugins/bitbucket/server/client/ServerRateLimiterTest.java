@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Robin Müller
+ */
+public class ServerRateLimiterTest {
+
+    @Test
+    public void parseRetryAfter_seconds() {
+        assertThat(ServerRateLimiter.parseRetryAfter("3", 0), is(3000L));
+    }
+
+    @Test
+    public void parseRetryAfter_httpDate() {
+        long now = 1445412480000L; // Wed, 21 Oct 2015 07:28:00 GMT
+
+        assertThat(ServerRateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:28:10 GMT", now), is(10000L));
+    }
+
+    @Test
+    public void parseRetryAfter_missing() {
+        assertThat(ServerRateLimiter.parseRetryAfter(null, 0), is(ServerRateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+    }
+
+    @Test
+    public void parseRetryAfter_invalid() {
+        assertThat(ServerRateLimiter.parseRetryAfter("soon", 0), is(ServerRateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+    }
+
+    @Test
+    public void parseRetryAfter_limited() {
+        assertThat(ServerRateLimiter.parseRetryAfter("86400", 0), is(ServerRateLimiter.MAX_RETRY_AFTER_MILLIS));
+    }
+
+    @Test
+    public void acquire_waitsWhilePaused() throws InterruptedException {
+        ServerRateLimiter rateLimiter = new ServerRateLimiter(0);
+        rateLimiter.pause(100);
+
+        long start = System.currentTimeMillis();
+        rateLimiter.acquire();
+
+        assertThat(System.currentTimeMillis() - start, greaterThanOrEqualTo(90L));
+    }
+
+    @Test
+    public void tryAcquire_pausedLongerThanTimeout() throws InterruptedException {
+        ServerRateLimiter rateLimiter = new ServerRateLimiter(0);
+        rateLimiter.pause(TimeUnit.MINUTES.toMillis(1));
+
+        assertThat(rateLimiter.tryAcquire(100), is(false));
+    }
+
+    @Test
+    public void tryAcquire_noPermitWithinTimeout() throws InterruptedException {
+        ServerRateLimiter rateLimiter = new ServerRateLimiter(0.1);
+        rateLimiter.tryAcquire(0);
+
+        assertThat(rateLimiter.tryAcquire(100), is(false));
+    }
+
+    @Test
+    public void setRate() {
+        ServerRateLimiter rateLimiter = new ServerRateLimiter(0);
+        rateLimiter.setRate(5);
+
+        assertThat(rateLimiter.getRate(), is(5.0));
+    }
+}
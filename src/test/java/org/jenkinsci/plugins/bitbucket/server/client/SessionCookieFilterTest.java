@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.junit.Test;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Robin Müller
+ */
+public class SessionCookieFilterTest {
+
+    @Test
+    public void sessionCookie_isSent() throws IOException {
+        SessionCookieFilter filter = new SessionCookieFilter(new BasicAuthFilter(null));
+        ClientRequestContext login = mockRequest(HttpMethod.GET);
+        filter.filter(login);
+        filter.filter(login, mockResponse(200, Collections.singletonMap(SessionCookieFilter.SESSION_COOKIE,
+                                                                        new NewCookie(SessionCookieFilter.SESSION_COOKIE, "abc"))));
+
+        ClientRequestContext request = mockRequest(HttpMethod.GET);
+        filter.filter(request);
+
+        assertThat(request.getHeaders().getFirst(HttpHeaders.COOKIE), is((Object) "JSESSIONID=abc"));
+        assertThat(request.getHeaders().getFirst("X-Atlassian-Token"), is(nullValue()));
+    }
+
+    @Test
+    public void modifyingRequest_skipsXsrfCheck() throws IOException {
+        SessionCookieFilter filter = new SessionCookieFilter(new BasicAuthFilter(null));
+        ClientRequestContext login = mockRequest(HttpMethod.GET);
+        filter.filter(login);
+        filter.filter(login, mockResponse(200, Collections.singletonMap(SessionCookieFilter.SESSION_COOKIE,
+                                                                        new NewCookie(SessionCookieFilter.SESSION_COOKIE, "abc"))));
+
+        ClientRequestContext request = mockRequest(HttpMethod.PUT);
+        filter.filter(request);
+
+        assertThat(request.getHeaders().getFirst("X-Atlassian-Token"), is((Object) "no-check"));
+    }
+
+    @Test
+    public void unauthorized_dropsSession() throws IOException {
+        SessionCookieFilter filter = new SessionCookieFilter(new BasicAuthFilter(null));
+        ClientRequestContext login = mockRequest(HttpMethod.GET);
+        filter.filter(login);
+        filter.filter(login, mockResponse(200, Collections.singletonMap(SessionCookieFilter.SESSION_COOKIE,
+                                                                        new NewCookie(SessionCookieFilter.SESSION_COOKIE, "abc"))));
+
+        ClientRequestContext request = mockRequest(HttpMethod.GET);
+        filter.filter(request);
+        when(request.getProperty(anyString())).thenReturn("abc");
+        ClientResponseContext response = mockResponse(401, Collections.<String, NewCookie>emptyMap());
+        filter.filter(request, response);
+
+        assertThat(filter.hasSession(), is(false));
+        assertThat(response.getHeaders().getFirst(SessionCookieFilter.SESSION_DROPPED_HEADER), is("true"));
+    }
+
+    @Test
+    public void failedLogin_isNotMarkedAsDroppedSession() throws IOException {
+        SessionCookieFilter filter = new SessionCookieFilter(new BasicAuthFilter(null));
+        ClientRequestContext login = mockRequest(HttpMethod.GET);
+        filter.filter(login);
+        ClientResponseContext response = mockResponse(401, Collections.<String, NewCookie>emptyMap());
+        filter.filter(login, response);
+
+        assertThat(response.getHeaders().getFirst(SessionCookieFilter.SESSION_DROPPED_HEADER), is(nullValue()));
+    }
+
+    private ClientRequestContext mockRequest(String method) {
+        ClientRequestContext request = mock(ClientRequestContext.class);
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        when(request.getMethod()).thenReturn(method);
+        when(request.getHeaders()).thenReturn(headers);
+        return request;
+    }
+
+    private ClientResponseContext mockResponse(int status, Map<String, NewCookie> cookies) {
+        ClientResponseContext response = mock(ClientResponseContext.class);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getCookies()).thenReturn(cookies);
+        when(response.getHeaders()).thenReturn(new MultivaluedHashMap<String, String>());
+        return response;
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Robin Müller
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentRequests_shareResponse() throws Exception {
+        final BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+        final SingleFlight singleFlight = new SingleFlight(statistics);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Object response = new Object();
+        Callable<Object> request = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return response;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(execute(singleFlight, request));
+            while (calls.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Object> second = executor.submit(execute(singleFlight, request));
+            while (statistics.getCoalescedRequests().isEmpty()) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertThat(first.get(), sameInstance(response));
+            assertThat(second.get(), sameInstance(response));
+            assertThat(calls.get(), is(1));
+            assertThat(statistics.getCoalescedRequests(), is(Collections.singletonMap("getCommit", 1L)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sequentialRequests_areSentAgain() throws Exception {
+        SingleFlight singleFlight = new SingleFlight(new BitbucketClientStatistics());
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<Integer> request = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet();
+            }
+        };
+
+        singleFlight.execute("getCommit", "/commits/abc", null, request);
+
+        assertThat(singleFlight.execute("getCommit", "/commits/abc", null, request), is(2));
+    }
+
+    @Test
+    public void joiner_givesUpAtItsDeadline() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight(new BitbucketClientStatistics());
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Object response = new Object();
+        Callable<Object> request = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return response;
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> first = executor.submit(execute(singleFlight, request));
+            while (calls.get() == 0) {
+                Thread.sleep(1);
+            }
+
+            try {
+                singleFlight.execute("getCommit", "/commits/abc", RequestDeadline.of("scan", 10, TimeUnit.MILLISECONDS), request);
+                fail("DeadlineExceededException expected");
+            } catch (DeadlineExceededException e) {
+                assertThat(e.getRequest(), is("getCommit (waiting for /commits/abc)"));
+            }
+            release.countDown();
+
+            assertThat(first.get(), sameInstance(response));
+            assertThat(calls.get(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<Object> execute(final SingleFlight singleFlight, final Callable<Object> request) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("getCommit", "/commits/abc", null, request);
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.jenkinsci.plugins.bitbucket.server.api.model.Branch;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Robin Müller
+ */
+public class StreamingPageTest {
+
+    @Test
+    public void attributesAfterValues() {
+        StreamingPage<Branch> page = page("{\"size\":2,\"limit\":2,\"isLastPage\":false,\"values\":["
+                                          + "{\"id\":\"refs/heads/master\",\"displayId\":\"master\",\"latestCommit\":\"8d51122\",\"isDefault\":true},"
+                                          + "{\"id\":\"refs/heads/develop\",\"displayId\":\"develop\",\"latestCommit\":\"e3b0c44\"}"
+                                          + "],\"start\":4,\"nextPageStart\":6}");
+
+        assertThat(page.getStart(), nullValue());
+        Iterator<Branch> branches = page.iterator();
+        assertThat(branches.next().getDisplayId(), is("master"));
+        assertThat(branches.next().getDisplayId(), is("develop"));
+        assertThat(branches.hasNext(), is(false));
+        assertThat(page.getStart(), is(4));
+        assertThat(page.getLimit(), is(2));
+        assertThat(page.getIsLastPage(), is(false));
+    }
+
+    @Test
+    public void emptyPage() {
+        StreamingPage<Branch> page = page("{\"size\":0,\"limit\":25,\"isLastPage\":true,\"values\":[],\"start\":0}");
+
+        assertThat(page.iterator().hasNext(), is(false));
+        assertThat(page.getIsLastPage(), is(true));
+        assertThat(page.getStart(), is(0));
+    }
+
+    @Test
+    public void getValues() {
+        StreamingPage<Branch> page = page("{\"isLastPage\":true,\"values\":[{\"displayId\":\"master\",\"unknown\":{\"a\":[1]}}]}");
+
+        assertThat(page.getValues().size(), is(1));
+        assertThat(page.getIsLastPage(), is(true));
+    }
+
+    private StreamingPage<Branch> page(String json) {
+        return new StreamingPage<>(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), Branch.class);
+    }
+}
@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.bitbucket.server.client;
+
+import org.apache.commons.lang.StringUtils;
+import org.glassfish.jersey.message.GZipEncoder;
+import org.junit.Test;
+
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Robin Müller
+ */
+public class TransferStatisticsFilterTest {
+
+    private static final String BODY = "{\"isLastPage\":true,\"values\":[" + StringUtils.repeat("{\"displayId\":\"master\"},", 100) + "{}]}";
+
+    @Test
+    public void gzipResponse_countsReceivedAndDecodedBytes() throws IOException {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = gzip(body);
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+
+        String entity = target(statistics, Response.ok(new ByteArrayInputStream(compressed), MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .build()).request().get(String.class);
+
+        assertThat(entity, is(BODY));
+        assertThat(statistics.getBytesReceived(), is((long) compressed.length));
+        assertThat(statistics.getBytesDecoded(), is((long) body.length));
+        assertThat(statistics.getBytesReceived(), lessThan(statistics.getBytesDecoded()));
+    }
+
+    @Test
+    public void identityResponse_countsSameBytes() {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        BitbucketClientStatistics statistics = new BitbucketClientStatistics();
+
+        String entity = target(statistics, Response.ok(new ByteArrayInputStream(body), MediaType.APPLICATION_JSON_TYPE).build())
+                .request().get(String.class);
+
+        assertThat(entity, is(BODY));
+        assertThat(statistics.getBytesReceived(), is((long) body.length));
+        assertThat(statistics.getBytesDecoded(), is((long) body.length));
+    }
+
+    private static WebTarget target(BitbucketClientStatistics statistics, final Response response) {
+        return ClientBuilder.newBuilder()
+                .register(new TransferStatisticsFilter(statistics), TransferStatisticsFilter.contracts())
+                .register(GZipEncoder.class)
+                .register(new ClientRequestFilter() {
+                    @Override
+                    public void filter(ClientRequestContext requestContext) {
+                        requestContext.abortWith(response);
+                    }
+                })
+                .build()
+                .target("http://localhost:7990/bitbucket");
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -2,7 +2,12 @@ package org.jenkinsci.plugins.bitbucket.server.filter;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -132,4 +137,32 @@ public class BranchFilterTest {
 
         assertFalse(filter.isBranchAllowed("excluded"));
     }
+
+    @Test
+    public void getFilterTexts_longestLiteral() {
+        BranchFilter filter = new BranchFilter("release/*, hotfix-?.x", "");
+
+        assertThat(filter.getFilterTexts(), is(Arrays.asList("release/", "hotfix-")));
+    }
+
+    @Test
+    public void getFilterTexts_containedText() {
+        BranchFilter filter = new BranchFilter("release/*, release/1.*", "");
+
+        assertThat(filter.getFilterTexts(), is(Collections.singletonList("release/")));
+    }
+
+    @Test
+    public void getFilterTexts_wildcardOnly() {
+        BranchFilter filter = new BranchFilter("release/*, *", "");
+
+        assertThat(filter.getFilterTexts(), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void getFilterTexts_regularExpression() {
+        BranchFilter filter = new BranchFilter("(master|develop)", "");
+
+        assertThat(filter.getFilterTexts(), is(Collections.<String>emptyList()));
+    }
 }
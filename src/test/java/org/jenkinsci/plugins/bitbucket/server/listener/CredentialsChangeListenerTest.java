@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.bitbucket.server.listener;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Robin Müller
+ */
+public class CredentialsChangeListenerTest {
+
+    private CredentialsChangeListener listener;
+    private ItemGroup<?> folder;
+
+    @Before
+    public void setup() {
+        listener = spy(new CredentialsChangeListener());
+        folder = mock(ItemGroup.class);
+        doNothing().when(listener).invalidateAll();
+        doNothing().when(listener).invalidate(any(ItemGroup.class));
+    }
+
+    @Test
+    public void systemCredentials_invalidateAll() {
+        listener.onChange(mock(SystemCredentialsProvider.class), null);
+
+        verify(listener).invalidateAll();
+        verify(listener, never()).invalidate(any(ItemGroup.class));
+    }
+
+    @Test
+    public void folder_unchangedCredentials() {
+        Credentials credentials = mock(Credentials.class);
+        doReturn(Collections.singletonList(credentials)).when(listener).credentialsOf(folder);
+
+        listener.onChange(folder, null);
+        listener.onChange(folder, null);
+
+        verify(listener, times(1)).invalidate(folder);
+        verify(listener, never()).invalidateAll();
+    }
+
+    @Test
+    public void folder_updatedCredentials() {
+        doReturn(Collections.singletonList(mock(Credentials.class))).when(listener).credentialsOf(folder);
+        listener.onChange(folder, null);
+        doReturn(Collections.singletonList(mock(Credentials.class))).when(listener).credentialsOf(folder);
+
+        listener.onChange(folder, null);
+
+        verify(listener, times(2)).invalidate(folder);
+    }
+
+    @Test
+    public void otherSaveable_isIgnored() {
+        listener.onChange(mock(Saveable.class), null);
+
+        verify(listener, never()).invalidateAll();
+        verify(listener, never()).invalidate(any(ItemGroup.class));
+    }
+}